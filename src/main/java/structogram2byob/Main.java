@@ -2,22 +2,17 @@ package structogram2byob;
 
 import java.awt.EventQueue;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 import javax.swing.UIManager;
-import javax.swing.UnsupportedLookAndFeelException;
 
 import structogram2byob.blocks.BlockRegistry;
-import structogram2byob.blocks.BlockRegistryReader;
 import structogram2byob.blocks.BlockRegistryReaderException;
-import structogram2byob.blocks.hats.StartClickedHatBlock;
-import structogram2byob.blocks.special.ChangeVariableBlock;
-import structogram2byob.blocks.special.ListBlock;
-import structogram2byob.blocks.special.ScriptVariablesBlock;
-import structogram2byob.blocks.special.SetVariableBlock;
-import structogram2byob.blocks.structures.ForeverBlock;
-import structogram2byob.blocks.structures.IfBlock;
-import structogram2byob.blocks.structures.IfElseBlock;
-import structogram2byob.blocks.structures.RepeatBlock;
+import structogram2byob.blocks.DefaultBlockRegistry;
+import structogram2byob.cli.BatchCompiler;
 import structogram2byob.gui.GuiController;
 import structogram2byob.gui.dialogs.IDialogFactory;
 import structogram2byob.gui.dialogs.SwingDialogFactory;
@@ -30,69 +25,78 @@ import structogram2byob.gui.frame.SwingFrameManager;
  */
 public class Main
 {
+    private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
+
     /**
-     * Application entry point.
+     * Application entry point. Without arguments, the GUI is started: the block
+     * registry is loaded on a background thread while the frame is created, so
+     * that the frame appears without waiting for it. With arguments, the
+     * headless batch compiler is run instead (see {@link BatchCompiler}).
      *
      * @param args The command-line arguments.
      */
     public static void main(String[] args)
     {
-        try {
-            BlockRegistry reg = createRegistry();
-            createUI(reg);
-        } catch (IOException | BlockRegistryReaderException e) {
-            e.printStackTrace();
+        if (args.length > 0) {
+            System.exit(BatchCompiler.run(args, System.out, System.err));
+            return;
         }
+
+        final long start = System.nanoTime();
+
+        CompletableFuture<BlockRegistry> blocks = CompletableFuture.supplyAsync(() -> {
+            long loadStart = System.nanoTime();
+            try {
+                BlockRegistry reg = DefaultBlockRegistry.load();
+                logElapsed("block registry loaded", loadStart);
+                return reg;
+            } catch (IOException | BlockRegistryReaderException e) {
+                throw new CompletionException(e);
+            }
+        });
+
+        EventQueue.invokeLater(() -> createUI(blocks, start));
     }
 
-    private static void createUI(BlockRegistry blocks)
+    private static void createUI(CompletableFuture<BlockRegistry> blocks, long start)
     {
-        if (!EventQueue.isDispatchThread()) {
-            EventQueue.invokeLater(() -> createUI(blocks));
-            return;
-        }
-
+        long lafStart = System.nanoTime();
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (ClassNotFoundException | InstantiationException
-                | IllegalAccessException | UnsupportedLookAndFeelException e) {
+        } catch (Exception e) {
+            // not naming the Swing exception type keeps the verifier from loading it in headless mode
             e.printStackTrace();
         }
+        logElapsed("look and feel set", lafStart);
 
         IDialogFactory dialogs = new SwingDialogFactory();
         IFrameManager frame = new SwingFrameManager();
 
-        GuiController gui = new GuiController(blocks, dialogs, frame);
+        GuiController gui = new GuiController(dialogs, frame);
         gui.show();
+        logElapsed("frame shown", start);
+
+        blocks.whenComplete((reg, err) -> EventQueue.invokeLater(() -> {
+            if (err != null) {
+                err.printStackTrace();
+                dialogs.createMessageDialog("Error: Blocks could not be loaded").show();
+                return;
+            }
+            gui.setBlockRegistry(reg);
+            logElapsed("block registry ready", start);
+        }));
     }
 
     /**
-     * Loads the block registry from the packaged resources, adds the special
-     * and structural blocks, and then returns that registry.
+     * Logs the time elapsed since the given instant, for the startup timing
+     * breakdown.
      *
-     * @return The registry containing all blocks.
-     *
-     * @throws IOException If an I/O error occurs.
-     * @throws BlockRegistryReaderException If the resource file contains malformed block descriptions.
+     * @param step The startup step that was completed.
+     * @param since The {@link System#nanoTime()} at which the step started.
      */
-    private static BlockRegistry createRegistry() throws IOException, BlockRegistryReaderException
+    private static void logElapsed(String step, long since)
     {
-        try (BlockRegistryReader r = new BlockRegistryReader(Main.class.getResourceAsStream("/functions.txt"))) {
-            BlockRegistry reg = r.read();
-
-            reg.register(StartClickedHatBlock.instance);
-
-            reg.register(ScriptVariablesBlock.instance);
-            reg.register(SetVariableBlock.instance);
-            reg.register(ChangeVariableBlock.instance);
-            reg.register(ListBlock.instance);
-
-            reg.register(IfBlock.instance);
-            reg.register(IfElseBlock.instance);
-            reg.register(RepeatBlock.instance);
-            reg.register(ForeverBlock.instance);
-
-            return reg;
-        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+        LOGGER.info(String.format("startup: %s after %d ms", step, millis));
     }
 }
@@ -1,10 +1,12 @@
 package structogram2byob.blocks;
 
 import java.util.List;
+import java.util.Set;
 
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.structures.IfElseBlock;
+import structogram2byob.program.Linker;
 import structogram2byob.program.ScratchConversionException;
 import structogram2byob.program.VariableContext;
 import structogram2byob.program.VariableMap;
@@ -22,14 +24,16 @@ public abstract class Block
     private final ScratchType returnValue;
 
     /**
-     * Constructs a new block with the given description and return type.
+     * Constructs a new block with the given description and return type. The
+     * description is interned, since blocks usually live as long as their
+     * registry.
      *
      * @param desc The block description.
      * @param returnType The type of value the block returns. May be null.
      */
     public Block(BlockDescription desc, ScratchType returnType)
     {
-        this.description = desc;
+        this.description = desc.intern();
         this.returnValue = returnType;
     }
 
@@ -49,6 +53,37 @@ public abstract class Block
         return returnValue;
     }
 
+    /**
+     * Links the given parameters of an invocation of this block (see
+     * {@link Expression#link(Set, Linker)}). By default, every parameter is
+     * linked; blocks that do not evaluate some of their parameters, such as
+     * variable names, override this.
+     *
+     * @param params The parameters the block is invoked with.
+     * @param variables The names of all variables in scope.
+     * @param linker The linker.
+     */
+    public void link(List<Expression> params, Set<String> variables, Linker linker)
+    {
+        for (Expression param : params) {
+            param.link(variables, linker);
+        }
+    }
+
+    /**
+     * Determines whether invocations of this block may be serialized once and
+     * shared by all structurally identical invocations in the same variable
+     * scope. This requires the serialized array to depend on nothing but the
+     * parameters, and to not be inspected or modified afterwards. Returns
+     * false by default.
+     *
+     * @return Whether serialized invocations can be shared.
+     */
+    public boolean isShareable()
+    {
+        return false;
+    }
+
     /**
      * Serializes this block into a Scratch array, as required by the Scratch
      * specification.
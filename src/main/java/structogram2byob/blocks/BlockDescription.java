@@ -1,10 +1,9 @@
 package structogram2byob.blocks;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import structogram2byob.ScratchType;
 
@@ -12,17 +11,87 @@ import structogram2byob.ScratchType;
 /**
  * A "block description" is the user-facing part of a block, i.e. the labels and
  * parameter acceptors making up its visual format.
+ *
+ * <p>
+ * Descriptions are stored compactly: one array holds the label of every part,
+ * another one packs each part's kind, i.e. whether it is a plain label or a
+ * parameter, and the parameter's type and list flag. The hash code is computed
+ * once.
+ *
+ * <p>
+ * Long-lived descriptions, i.e. those of blocks, can be interned via
+ * {@link #intern()}, so that equal ones share one instance. Descriptions built
+ * while parsing expressions are short-lived and not interned, so that
+ * concurrent parsers do not contend on the shared table.
  */
 public class BlockDescription
 {
-    private final List<Object> parts;
+    private static final ScratchType[] TYPES = ScratchType.values();
+
+    private static final byte KIND_LABEL = 0;
+    private static final byte KIND_TYPE_MASK = 0x3F;
+    private static final byte KIND_LIST_FLAG = 0x40;
+
+    private static final Map<BlockDescription, WeakReference<BlockDescription>> interned = new WeakHashMap<>();
+
+    private final String[] labels;
+    private final byte[] kinds;
+    private final int hash;
 
     /**
-     * @param parts The parts this description consists of.
+     * @param labels The part labels.
+     * @param kinds The packed part kinds.
      */
-    private BlockDescription(List<Object> parts)
+    private BlockDescription(String[] labels, byte[] kinds)
+    {
+        this.labels = labels;
+        this.kinds = kinds;
+
+        int h = 1;
+        for (int i = 0; i < kinds.length; ++i) {
+            h = 31 * h + partHash(i);
+        }
+        this.hash = h;
+    }
+
+    private int partHash(int index)
     {
-        this.parts = Collections.unmodifiableList(new ArrayList<>(parts));
+        String label = labels[index];
+        if (kinds[index] == KIND_LABEL) {
+            return label.hashCode();
+        }
+
+        int h = 31 + (label == null ? 0 : label.hashCode());
+        h = 31 * h + Boolean.hashCode((kinds[index] & KIND_LIST_FLAG) != 0);
+        return 31 * h + (kinds[index] & KIND_TYPE_MASK);
+    }
+
+    /**
+     * Returns the canonical instance equal to this description. The labels of
+     * canonical instances are interned with {@link String#intern()}. Blocks
+     * intern their descriptions when constructed; descriptions that are only
+     * used for lookups need not be interned.
+     *
+     * @return The canonical instance.
+     */
+    public BlockDescription intern()
+    {
+        synchronized (interned) {
+            WeakReference<BlockDescription> ref = interned.get(this);
+            BlockDescription existing = ref != null ? ref.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+
+            String[] internedLabels = new String[labels.length];
+            for (int i = 0; i < labels.length; ++i) {
+                internedLabels[i] = labels[i] == null ? null : labels[i].intern();
+            }
+            BlockDescription canonical = new BlockDescription(internedLabels, kinds);
+
+            interned.put(canonical, new WeakReference<>(canonical));
+            return canonical;
+        }
     }
 
     /**
@@ -30,7 +99,7 @@ public class BlockDescription
      */
     public int countParts()
     {
-        return parts.size();
+        return kinds.length;
     }
 
     /**
@@ -42,7 +111,7 @@ public class BlockDescription
      */
     public boolean isParameter(int index)
     {
-        return parts.get(index) instanceof Parameter;
+        return kinds[index] != KIND_LABEL;
     }
 
     /**
@@ -54,10 +123,7 @@ public class BlockDescription
      */
     public String getLabel(int index)
     {
-        if (isParameter(index)) {
-            return ((Parameter) parts.get(index)).label;
-        }
-        return (String) parts.get(index);
+        return labels[index];
     }
 
     /**
@@ -73,7 +139,7 @@ public class BlockDescription
         if (!isParameter(index)) {
             throw new IllegalArgumentException("tried accessing label as parameter");
         }
-        return ((Parameter) parts.get(index)).type;
+        return TYPES[(kinds[index] & KIND_TYPE_MASK) - 1];
     }
 
     /**
@@ -90,7 +156,7 @@ public class BlockDescription
         if (!isParameter(index)) {
             throw new IllegalArgumentException("tried accessing label as parameter");
         }
-        return ((Parameter) parts.get(index)).list;
+        return (kinds[index] & KIND_LIST_FLAG) != 0;
     }
 
     /**
@@ -123,7 +189,7 @@ public class BlockDescription
                 if (!o.isParameter(j) || !paramType.isAssignableFrom(o.getType(j))) {
                     return false;
                 }
-            } else if (o.isParameter(j) || !getLabel(i).equals(o.getLabel(j))) {
+            } else if (o.isParameter(j) || !labels[i].equals(o.labels[j])) {
                 // labels must match for non-parameters
                 return false;
             }
@@ -143,12 +209,19 @@ public class BlockDescription
      */
     public String toUserSpec()
     {
-        return parts.stream().map(p -> {
-            if (p instanceof Parameter) {
-                return "%" + ((Parameter) p).label;
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < kinds.length; ++i) {
+            if (i > 0) {
+                sb.append(' ');
             }
-            return (String) p;
-        }).collect(Collectors.joining(" "));
+            if (isParameter(i)) {
+                sb.append('%');
+            }
+            sb.append(labels[i]);
+        }
+
+        return sb.toString();
     }
 
     /**
@@ -160,7 +233,9 @@ public class BlockDescription
     public Builder toBuilder()
     {
         Builder b = new Builder();
-        b.parts.addAll(parts);
+        b.labels = Arrays.copyOf(labels, Math.max(labels.length, Builder.INITIAL_CAPACITY));
+        b.kinds = Arrays.copyOf(kinds, b.labels.length);
+        b.size = kinds.length;
 
         return b;
     }
@@ -168,7 +243,7 @@ public class BlockDescription
     @Override
     public int hashCode()
     {
-        return Objects.hashCode(parts);
+        return hash;
     }
 
     @Override
@@ -181,13 +256,31 @@ public class BlockDescription
             return false;
         }
         BlockDescription other = (BlockDescription) obj;
-        return Objects.equals(parts, other.parts);
+        return hash == other.hash && Arrays.equals(kinds, other.kinds) && Arrays.equals(labels, other.labels);
     }
 
     @Override
     public String toString()
     {
-        return parts.stream().map(Object::toString).collect(Collectors.joining(" "));
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < kinds.length; ++i) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            if (!isParameter(i)) {
+                sb.append(labels[i]);
+                continue;
+            }
+            sb.append('(');
+            sb.append(getType(i).name().toLowerCase());
+            if (isList(i)) {
+                sb.append("...");
+            }
+            sb.append(')');
+        }
+
+        return sb.toString();
     }
 
     /**
@@ -195,7 +288,27 @@ public class BlockDescription
      */
     public static class Builder
     {
-        private final List<Object> parts = new ArrayList<>();
+        private static final int INITIAL_CAPACITY = 8;
+
+        private String[] labels = new String[INITIAL_CAPACITY];
+        private byte[] kinds = new byte[INITIAL_CAPACITY];
+        private int size;
+
+        private void add(String label, byte kind)
+        {
+            if (size == kinds.length) {
+                labels = Arrays.copyOf(labels, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+            }
+            labels[size] = label;
+            kinds[size] = kind;
+            ++size;
+        }
+
+        private static byte paramKind(ScratchType type, boolean list)
+        {
+            return (byte) ((type.ordinal() + 1) | (list ? KIND_LIST_FLAG : 0));
+        }
 
         /**
          * Adds a parameter part of the given type to the object being built.
@@ -205,7 +318,7 @@ public class BlockDescription
          */
         public Builder param(ScratchType type)
         {
-            parts.add(new Parameter(type, false, null));
+            add(null, paramKind(type, false));
             return this;
         }
 
@@ -219,7 +332,7 @@ public class BlockDescription
          */
         public Builder param(ScratchType type, String label)
         {
-            parts.add(new Parameter(type, false, label));
+            add(label, paramKind(type, false));
             return this;
         }
 
@@ -232,7 +345,7 @@ public class BlockDescription
          */
         public Builder paramList(ScratchType type)
         {
-            parts.add(new Parameter(type, true, null));
+            add(null, paramKind(type, true));
             return this;
         }
 
@@ -246,7 +359,7 @@ public class BlockDescription
          */
         public Builder paramList(ScratchType type, String label)
         {
-            parts.add(new Parameter(type, true, label));
+            add(label, paramKind(type, true));
             return this;
         }
 
@@ -258,77 +371,19 @@ public class BlockDescription
          */
         public Builder label(String label)
         {
-            parts.add(label);
+            add(label, KIND_LABEL);
             return this;
         }
 
         /**
          * Constructs a block description from the parts added to this builder.
+         * The result is not interned (see {@link BlockDescription#intern()}).
          *
          * @return A block description.
          */
         public BlockDescription build()
         {
-            return new BlockDescription(parts);
-        }
-    }
-
-    /**
-     * Class used in block descriptions for specifying parameters.
-     */
-    private static class Parameter
-    {
-        private final ScratchType type;
-        private final boolean list;
-        private final String label;
-
-        /**
-         * Constructs a new parameter that accepts the given type, may be a
-         * list, and has the given label.
-         *
-         * @param type The type of value that is accepted.
-         * @param list Whether the param accepts a variable number of values.
-         * @param label The parameter's label. May be null if there is no label.
-         */
-        public Parameter(ScratchType type, boolean list, String label)
-        {
-            this.type = type;
-            this.list = list;
-            this.label = label;
-        }
-
-        @Override
-        public int hashCode()
-        {
-            return Objects.hash(label, list, type);
-        }
-
-        @Override
-        public boolean equals(Object obj)
-        {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
-            }
-            Parameter other = (Parameter) obj;
-            return Objects.equals(label, other.label) && list == other.list && type == other.type;
-        }
-
-        @Override
-        public String toString()
-        {
-            StringBuilder sb = new StringBuilder();
-
-            sb.append('(');
-            sb.append(type.name().toLowerCase());
-            if (list) {
-                sb.append("...");
-            }
-            sb.append(')');
-
-            return sb.toString();
+            return new BlockDescription(Arrays.copyOf(labels, size), Arrays.copyOf(kinds, size));
         }
     }
 }
@@ -0,0 +1,183 @@
+package structogram2byob.blocks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import structogram2byob.ScratchType;
+
+
+/**
+ * A token trie compiled from a collection of blocks, for matching block
+ * descriptions against all of them in a single left-to-right walk.
+ *
+ * <p>
+ * Label parts become edges keyed by the label, parameters become wildcard
+ * edges that accept every assignable type, and list parameters become nodes
+ * with a self-loop. The walk yields exactly the blocks for which
+ * {@link BlockDescription#isAssignableFrom(BlockDescription)} holds, including
+ * its greedy treatment of list parameters: a list consumes every following
+ * parameter it can accept before the next part is matched.
+ *
+ * <p>
+ * When multiple blocks match, the one that came first in the collection the
+ * matcher was compiled from is returned.
+ */
+public class BlockMatcher
+{
+    private final Node root = new Node(null, false);
+
+    /**
+     * Compiles a matcher from the given blocks.
+     *
+     * @param blocks The blocks to match against, in order of precedence.
+     */
+    public BlockMatcher(Collection<? extends Block> blocks)
+    {
+        int position = 0;
+        for (Block block : blocks) {
+            insert(block, position++);
+        }
+    }
+
+    private void insert(Block block, int position)
+    {
+        BlockDescription desc = block.getDescription();
+        Node node = root;
+
+        for (int i = 0, n = desc.countParts(); i < n; ++i) {
+            if (desc.isParameter(i)) {
+                node = node.paramChild(desc.getType(i), desc.isList(i));
+            } else {
+                node = node.labels.computeIfAbsent(desc.getLabel(i), k -> new Node(null, false));
+            }
+        }
+
+        if (node.block == null) {
+            node.block = block;
+            node.position = position;
+        }
+    }
+
+    /**
+     * Returns the block matching the given block description as per
+     * {@link BlockDescription#isAssignableFrom(BlockDescription)}.
+     *
+     * @param desc The description to look up.
+     * @return The matching block, or null if there is none.
+     */
+    public Block match(BlockDescription desc)
+    {
+        List<Node> current = new ArrayList<>();
+        List<Node> next = new ArrayList<>();
+        current.add(root);
+
+        for (int j = 0, n = desc.countParts(); j < n && !current.isEmpty(); ++j) {
+            for (Node state : current) {
+                advance(state, desc, j, next);
+            }
+
+            List<Node> tmp = current;
+            current = next;
+            next = tmp;
+            next.clear();
+        }
+
+        Node best = null;
+        for (Node state : current) {
+            if (state.block != null && (best == null || state.position < best.position)) {
+                best = state;
+            }
+        }
+
+        return best != null ? best.block : null;
+    }
+
+    /**
+     * Feeds the given part to the given state, adding all resulting states to
+     * the output list. A list node consumes the part if it can; only otherwise
+     * does the part move on to the list's successors.
+     */
+    private static void advance(Node state, BlockDescription desc, int j, List<Node> out)
+    {
+        if (state.list && state.accepts(desc, j)) {
+            addState(out, state);
+            return;
+        }
+        step(state, desc, j, out);
+    }
+
+    /**
+     * Feeds the given part to all edges leaving the given node.
+     */
+    private static void step(Node node, BlockDescription desc, int j, List<Node> out)
+    {
+        if (!desc.isParameter(j)) {
+            Node child = node.labels.get(desc.getLabel(j));
+            if (child != null) {
+                addState(out, child);
+            }
+        }
+
+        for (Node child : node.params) {
+            if (child.list) {
+                // an empty list is skipped over if the part does not fit
+                advance(child, desc, j, out);
+            } else if (child.accepts(desc, j)) {
+                addState(out, child);
+            }
+        }
+    }
+
+    private static void addState(List<Node> states, Node state)
+    {
+        for (Node s : states) {
+            if (s == state) {
+                return;
+            }
+        }
+        states.add(state);
+    }
+
+    /**
+     * A trie node, reached via a label edge (type is null) or a parameter edge.
+     */
+    private static class Node
+    {
+        private final ScratchType type;
+        private final boolean list;
+
+        private final Map<String, Node> labels = new HashMap<>();
+        private final List<Node> params = new ArrayList<>();
+
+        private Block block;
+        private int position;
+
+        private Node(ScratchType type, boolean list)
+        {
+            this.type = type;
+            this.list = list;
+        }
+
+        private Node paramChild(ScratchType childType, boolean childList)
+        {
+            for (Node child : params) {
+                if (child.type == childType && child.list == childList) {
+                    return child;
+                }
+            }
+
+            Node child = new Node(childType, childList);
+            params.add(child);
+
+            return child;
+        }
+
+        private boolean accepts(BlockDescription desc, int j)
+        {
+            return desc.isParameter(j) && type.isAssignableFrom(desc.getType(j));
+        }
+    }
+}
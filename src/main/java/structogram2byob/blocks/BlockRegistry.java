@@ -1,19 +1,50 @@
 package structogram2byob.blocks;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 
 /**
  * Mapping of block descriptions to the respective block, with the ability to
  * look blocks up with respect to
  * {@link BlockDescription#isAssignableFrom(BlockDescription)}.
+ *
+ * <p>
+ * Lookups are performed by a {@link BlockMatcher} that is compiled from the
+ * registered blocks on demand. It is built in the underlying map's iteration
+ * order, so that ambiguous lookups resolve to the same block a scan over the
+ * map would return. Overlays (registries with a base) keep their own blocks in
+ * registration order, so that among them, the first one registered wins.
+ *
+ * <p>
+ * Optionally, lookup results (including unsuccessful ones) can be memoized in
+ * a bounded LRU cache, see {@link #setCacheCapacity(int)}. The cache is
+ * invalidated whenever this registry or its base registry changes.
+ *
+ * <p>
+ * A registry can be frozen into an immutable snapshot, see {@link #freeze()}.
+ * Snapshots have their matcher compiled up front and do not cache, so once
+ * safely published they can be shared by any number of threads without
+ * synchronization. Per-program blocks are then added to a cheap overlay
+ * created via {@link #BlockRegistry(BlockRegistry)}, which leaves the
+ * snapshot untouched.
  */
 public class BlockRegistry
 {
     private final BlockRegistry base;
-    private final Map<BlockDescription, Block> blocks = new HashMap<>();
+    private final Map<BlockDescription, Block> blocks;
+    private final boolean frozen;
+
+    private BlockMatcher matcher;
+    private long modifications;
+
+    private int cacheCapacity;
+    private LookupCache cache;
+    private long cacheVersion;
+    private long cacheHits, cacheMisses;
 
     /**
      * Constructs an empty block registry.
@@ -25,13 +56,129 @@ public class BlockRegistry
 
     /**
      * Constructs a block registry that will extend the given base registry
-     * without modifying it.
+     * without modifying it. The new registry uses the same cache capacity as
+     * the base, but has a cache of its own. This takes constant time; no blocks
+     * are copied.
      *
      * @param base The block registry to be used as the base for this one.
      */
     public BlockRegistry(BlockRegistry base)
     {
         this.base = base;
+        this.blocks = base != null ? new LinkedHashMap<>() : new HashMap<>();
+        this.frozen = false;
+
+        if (base != null) {
+            setCacheCapacity(base.getCacheCapacity());
+        }
+    }
+
+    /**
+     * Constructs a frozen snapshot of the given registry's own blocks.
+     *
+     * @param base The (frozen) base registry of the snapshot.
+     * @param source The registry whose blocks to copy.
+     */
+    private BlockRegistry(BlockRegistry base, BlockRegistry source)
+    {
+        this.base = base;
+        // keep the source's iteration order so ambiguous lookups do not change
+        this.blocks = Collections.unmodifiableMap(new LinkedHashMap<>(source.blocks));
+        this.frozen = true;
+
+        this.matcher = new BlockMatcher(blocks.values());
+        this.cacheCapacity = source.cacheCapacity;
+    }
+
+    /**
+     * Returns an immutable snapshot of this registry, including its base
+     * registries. The snapshot resolves lookups exactly like this registry did
+     * at the time of freezing, but rejects registrations and is safe for
+     * concurrent lookups. Freezing a frozen registry returns it unchanged.
+     *
+     * @return A frozen snapshot of this registry.
+     */
+    public BlockRegistry freeze()
+    {
+        if (frozen) {
+            return this;
+        }
+        return new BlockRegistry(base != null ? base.freeze() : null, this);
+    }
+
+    /**
+     * @return Whether this registry is a frozen snapshot.
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * @return The registry this one extends, or null.
+     */
+    public BlockRegistry getBase()
+    {
+        return base;
+    }
+
+    /**
+     * @return The blocks registered with this registry (excluding those of the
+     *         base registry), in iteration order. The collection is read-only.
+     */
+    public Collection<Block> getBlocks()
+    {
+        return Collections.unmodifiableCollection(blocks.values());
+    }
+
+    /**
+     * Sets the maximum number of lookup results to memoize. When the limit is
+     * exceeded, the least recently used entry is evicted. A capacity of 0
+     * disables caching. Changing the capacity discards all cached entries.
+     *
+     * @param capacity The cache capacity.
+     *
+     * @throws IllegalArgumentException If the capacity is negative.
+     * @throws IllegalStateException If this registry is frozen.
+     */
+    public void setCacheCapacity(int capacity)
+    {
+        if (frozen) {
+            throw new IllegalStateException("registry is frozen");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative cache capacity");
+        }
+        cacheCapacity = capacity;
+        cache = capacity > 0 ? new LookupCache(capacity) : null;
+    }
+
+    /**
+     * Obtains the maximum number of memoized lookups. Frozen registries retain
+     * the capacity of the registry they were created from, so that overlays
+     * inherit it, but do not cache lookups themselves.
+     *
+     * @return The maximum number of memoized lookups, or 0 if caching is off.
+     */
+    public int getCacheCapacity()
+    {
+        return cacheCapacity;
+    }
+
+    /**
+     * @return The number of lookups on this registry answered from the cache.
+     */
+    public long getCacheHits()
+    {
+        return cacheHits;
+    }
+
+    /**
+     * @return The number of lookups on this registry that missed the cache.
+     */
+    public long getCacheMisses()
+    {
+        return cacheMisses;
     }
 
     /**
@@ -40,13 +187,73 @@ public class BlockRegistry
      * @param block The block to register.
      *
      * @throws IllegalArgumentException If the block is already registered.
+     * @throws IllegalStateException If this registry is frozen.
      */
     public void register(Block block)
     {
+        if (frozen) {
+            throw new IllegalStateException("registry is frozen");
+        }
         if (blocks.containsKey(block.getDescription())) {
             throw new IllegalArgumentException("block already registered");
         }
         blocks.put(block.getDescription(), block);
+
+        // the map's iteration order may have changed, so recompile on demand
+        matcher = null;
+        ++modifications;
+    }
+
+    /**
+     * Removes the given block from this registry. Blocks of the base registry
+     * are not affected.
+     *
+     * @param block The block to remove.
+     *
+     * @throws IllegalArgumentException If the block is not registered with this registry.
+     * @throws IllegalStateException If this registry is frozen.
+     */
+    public void unregister(Block block)
+    {
+        if (frozen) {
+            throw new IllegalStateException("registry is frozen");
+        }
+        if (blocks.get(block.getDescription()) != block) {
+            throw new IllegalArgumentException("block not registered");
+        }
+        blocks.remove(block.getDescription());
+
+        matcher = null;
+        ++modifications;
+    }
+
+    /**
+     * Replaces the given block by another one with the same description. The
+     * replacement takes over the position of the replaced block, so ambiguous
+     * lookups resolve as before.
+     *
+     * @param block The block to replace.
+     * @param replacement The new block.
+     *
+     * @throws IllegalArgumentException If the block is not registered with this
+     *             registry, or the descriptions differ.
+     * @throws IllegalStateException If this registry is frozen.
+     */
+    public void replace(Block block, Block replacement)
+    {
+        if (frozen) {
+            throw new IllegalStateException("registry is frozen");
+        }
+        if (blocks.get(block.getDescription()) != block) {
+            throw new IllegalArgumentException("block not registered");
+        }
+        if (!block.getDescription().equals(replacement.getDescription())) {
+            throw new IllegalArgumentException("descriptions differ");
+        }
+        blocks.put(replacement.getDescription(), replacement);
+
+        matcher = null;
+        ++modifications;
     }
 
     /**
@@ -57,18 +264,84 @@ public class BlockRegistry
      * @return The block matching the given description.
      */
     public Block lookup(BlockDescription desc)
+    {
+        if (cache == null) {
+            return lookupUncached(desc);
+        }
+
+        long version = getVersion();
+        if (version != cacheVersion) {
+            cache.clear();
+            cacheVersion = version;
+        }
+
+        Block block = cache.get(desc);
+        if (block != null || cache.containsKey(desc)) {
+            ++cacheHits;
+            return block;
+        }
+
+        ++cacheMisses;
+
+        block = lookupUncached(desc);
+        cache.put(desc, block);
+
+        return block;
+    }
+
+    private Block lookupUncached(BlockDescription desc)
     {
         Block baseLookup = base != null ? base.lookup(desc) : null;
         if (baseLookup != null) {
             return baseLookup;
         }
 
-        for (Entry<BlockDescription, Block> e : blocks.entrySet()) {
-            if (e.getKey().isAssignableFrom(desc)) {
-                return e.getValue();
-            }
+        return compile().match(desc);
+    }
+
+    /**
+     * Compiles the blocks registered with this registry (excluding those of the
+     * base registry) into a matcher. The result is cached until another block
+     * is registered. Frozen registries compile their matcher when created.
+     *
+     * @return A matcher for this registry's own blocks.
+     */
+    public BlockMatcher compile()
+    {
+        if (matcher == null) {
+            matcher = new BlockMatcher(blocks.values());
+        }
+        return matcher;
+    }
+
+    /**
+     * @return A number that changes whenever this registry or its base changes.
+     */
+    private long getVersion()
+    {
+        return base != null ? modifications + base.getVersion() : modifications;
+    }
+
+    /**
+     * Access-ordered map that evicts its eldest entry when the capacity is
+     * exceeded.
+     */
+    private static class LookupCache extends LinkedHashMap<BlockDescription, Block>
+    {
+        private static final long serialVersionUID = 2416487305472961630L;
+
+        private final int capacity;
+
+        private LookupCache(int capacity)
+        {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
         }
 
-        return null;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BlockDescription, Block> eldest)
+        {
+            return size() > capacity;
+        }
     }
 }
@@ -3,6 +3,8 @@ package structogram2byob.blocks;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 import structogram2byob.ScratchType;
@@ -61,6 +63,25 @@ public class BlockRegistryReader implements Closeable
     {
         BlockRegistry reg = new BlockRegistry();
 
+        for (FunctionBlock block : readBlocks()) {
+            reg.register(block);
+        }
+
+        return reg;
+    }
+
+    /**
+     * Reads all block definitions from this reader's input and returns them in
+     * the order they appear in.
+     *
+     * @return The blocks that were read.
+     *
+     * @throws BlockRegistryReaderException If the registry is malformed or contains invalid definitions.
+     */
+    public List<FunctionBlock> readBlocks() throws BlockRegistryReaderException
+    {
+        List<FunctionBlock> blocks = new ArrayList<>();
+
         String descLine, returnLine, methodLine;
         while ((descLine = nextLine()) != null) {
             int i = lineNumber;
@@ -72,10 +93,10 @@ public class BlockRegistryReader implements Closeable
                 throw new BlockRegistryReaderException("block definition incomplete");
             }
 
-            reg.register(parseFunction(descLine, returnLine, methodLine, i));
+            blocks.add(parseFunction(descLine, returnLine, methodLine, i));
         }
 
-        return reg;
+        return blocks;
     }
 
     /**
@@ -0,0 +1,182 @@
+package structogram2byob.blocks;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Generates the Java source of the {@code BuiltinBlocks} class, which
+ * constructs a given list of function blocks directly, without any parsing.
+ *
+ * <p>
+ * The build runs {@link #main(String[])} on {@code functions.txt} and compiles
+ * the result, so that the built-in registry can be created without lexing or
+ * parsing at runtime. The generated class has a single public method,
+ * {@code public static List<FunctionBlock> createBlocks()}, returning the
+ * blocks in the order of the text file.
+ */
+public class BuiltinBlocksGenerator
+{
+    /**
+     * The fully qualified name of the generated class.
+     */
+    public static final String CLASS_NAME = "structogram2byob.blocks.BuiltinBlocks";
+
+    /**
+     * Blocks per generated method, to stay well below the method size limit.
+     */
+    private static final int BLOCKS_PER_METHOD = 64;
+
+    private final Appendable out;
+
+    /**
+     * Constructs a new generator writing to the given output.
+     *
+     * @param out The output to write the source code to.
+     */
+    public BuiltinBlocksGenerator(Appendable out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Writes the source of a class constructing the given blocks.
+     *
+     * @param blocks The blocks to construct, in order.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void generate(List<FunctionBlock> blocks) throws IOException
+    {
+        int methods = (blocks.size() + BLOCKS_PER_METHOD - 1) / BLOCKS_PER_METHOD;
+
+        out.append("package structogram2byob.blocks;\n\n");
+        out.append("import java.util.ArrayList;\n");
+        out.append("import java.util.List;\n\n");
+        out.append("import structogram2byob.ScratchType;\n\n\n");
+        out.append("// generated by ").append(BuiltinBlocksGenerator.class.getSimpleName())
+                .append(" from functions.txt, do not edit\n");
+        out.append("public final class BuiltinBlocks\n{\n");
+        out.append("    private BuiltinBlocks()\n    {\n    }\n\n");
+
+        out.append("    public static List<FunctionBlock> createBlocks()\n    {\n");
+        out.append("        List<FunctionBlock> blocks = new ArrayList<>(").append(Integer.toString(blocks.size()))
+                .append(");\n");
+        for (int m = 0; m < methods; ++m) {
+            out.append("        addBlocks").append(Integer.toString(m)).append("(blocks);\n");
+        }
+        out.append("        return blocks;\n    }\n");
+
+        for (int m = 0; m < methods; ++m) {
+            out.append("\n    private static void addBlocks").append(Integer.toString(m))
+                    .append("(List<FunctionBlock> blocks)\n    {\n");
+
+            int end = Math.min(blocks.size(), (m + 1) * BLOCKS_PER_METHOD);
+            for (int i = m * BLOCKS_PER_METHOD; i < end; ++i) {
+                appendBlock(blocks.get(i));
+            }
+
+            out.append("    }\n");
+        }
+
+        out.append("}\n");
+    }
+
+    private void appendBlock(FunctionBlock block) throws IOException
+    {
+        BlockDescription desc = block.getDescription();
+
+        out.append("        blocks.add(new FunctionBlock(new BlockDescription.Builder()");
+        for (int i = 0, n = desc.countParts(); i < n; ++i) {
+            if (!desc.isParameter(i)) {
+                out.append(".label(");
+                appendString(desc.getLabel(i));
+                out.append(")");
+                continue;
+            }
+
+            out.append(desc.isList(i) ? ".paramList(" : ".param(");
+            appendType(desc.getType(i));
+            if (desc.getLabel(i) != null) {
+                out.append(", ");
+                appendString(desc.getLabel(i));
+            }
+            out.append(")");
+        }
+        out.append(".build(), ");
+
+        if (block.getReturnType() == null) {
+            out.append("null");
+        } else {
+            appendType(block.getReturnType());
+        }
+        out.append(", ");
+        appendString(block.getMethod());
+        out.append("));\n");
+    }
+
+    private void appendType(Enum<?> type) throws IOException
+    {
+        out.append("ScratchType.").append(type.name());
+    }
+
+    private void appendString(String s) throws IOException
+    {
+        out.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c < 0x20) {
+                // unicode escapes are translated before lexing, so a line feed escape would end the literal
+                out.append(String.format(Locale.ROOT, "\\%03o", (int) c));
+            } else if (c > 0x7E) {
+                out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Generates the block table source from a text registry file.
+     *
+     * @param args The input (text) file and the source root to write to.
+     *
+     * @throws IOException If an I/O error occurs.
+     * @throws BlockRegistryReaderException If the text registry is malformed.
+     */
+    public static void main(String[] args) throws IOException, BlockRegistryReaderException
+    {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("expected arguments: <input> <source root>");
+        }
+
+        List<FunctionBlock> blocks;
+        try (BlockRegistryReader r = new BlockRegistryReader(new FileInputStream(args[0]))) {
+            blocks = r.readBlocks();
+        }
+
+        Path file = Paths.get(args[1], CLASS_NAME.replace('.', '/') + ".java");
+        Files.createDirectories(file.getParent());
+
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8)) {
+            new BuiltinBlocksGenerator(w).generate(blocks);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package structogram2byob.blocks;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import structogram2byob.blocks.hats.StartClickedHatBlock;
+import structogram2byob.blocks.special.ChangeVariableBlock;
+import structogram2byob.blocks.special.ListBlock;
+import structogram2byob.blocks.special.ScriptVariablesBlock;
+import structogram2byob.blocks.special.SetVariableBlock;
+import structogram2byob.blocks.structures.ForeverBlock;
+import structogram2byob.blocks.structures.IfBlock;
+import structogram2byob.blocks.structures.IfElseBlock;
+import structogram2byob.blocks.structures.RepeatBlock;
+
+
+/**
+ * Loads the registry of all blocks that are available to every program: the
+ * packaged function blocks, plus the hat, special and structural blocks.
+ */
+public class DefaultBlockRegistry
+{
+    private static final int LOOKUP_CACHE_CAPACITY = 1024;
+
+    private DefaultBlockRegistry()
+    {
+    }
+
+    /**
+     * Loads the block registry from the packaged resources, adds the special
+     * and structural blocks, and then returns a frozen snapshot of that
+     * registry. The snapshot can be shared by any number of threads.
+     *
+     * @return The registry containing all blocks.
+     *
+     * @throws IOException If an I/O error occurs.
+     * @throws BlockRegistryReaderException If the resource file contains malformed block descriptions.
+     */
+    public static BlockRegistry load() throws IOException, BlockRegistryReaderException
+    {
+        return load(null);
+    }
+
+    /**
+     * Loads the block registry like {@link #load()}, but takes the function
+     * blocks from the given user-supplied library instead of the packaged
+     * ones. The library has the text format of {@link BlockRegistryReader} and
+     * is always parsed, since there is no generated table for it.
+     *
+     * @param library The block library, or null to use the packaged blocks.
+     * @return The registry containing all blocks.
+     *
+     * @throws IOException If an I/O error occurs.
+     * @throws BlockRegistryReaderException If the library or resource file contains malformed block
+     *             descriptions.
+     */
+    public static BlockRegistry load(Path library) throws IOException, BlockRegistryReaderException
+    {
+        BlockRegistry reg = library != null ? readLibrary(library) : readRegistry();
+
+        reg.register(StartClickedHatBlock.instance);
+
+        reg.register(ScriptVariablesBlock.instance);
+        reg.register(SetVariableBlock.instance);
+        reg.register(ChangeVariableBlock.instance);
+        reg.register(ListBlock.instance);
+
+        reg.register(IfBlock.instance);
+        reg.register(IfElseBlock.instance);
+        reg.register(RepeatBlock.instance);
+        reg.register(ForeverBlock.instance);
+
+        reg.setCacheCapacity(LOOKUP_CACHE_CAPACITY);
+
+        return reg.freeze();
+    }
+
+    /**
+     * Reads the packaged function blocks from the block table generated at
+     * build time. The text file is parsed only during development, i.e. if the
+     * table is not available or older than the text file.
+     *
+     * @return A registry containing the function blocks.
+     *
+     * @throws IOException If an I/O error occurs, or no block resource exists.
+     * @throws BlockRegistryReaderException If the resource file contains malformed block descriptions.
+     */
+    private static BlockRegistry readRegistry() throws IOException, BlockRegistryReaderException
+    {
+        URL text = DefaultBlockRegistry.class.getResource("/functions.txt");
+        URL table = DefaultBlockRegistry.class
+                .getResource("/" + BuiltinBlocksGenerator.CLASS_NAME.replace('.', '/') + ".class");
+
+        if (isUpToDate(table, text)) {
+            try {
+                List<?> blocks = (List<?>) Class.forName(BuiltinBlocksGenerator.CLASS_NAME)
+                        .getMethod("createBlocks").invoke(null);
+
+                BlockRegistry reg = new BlockRegistry();
+                for (Object block : blocks) {
+                    reg.register((Block) block);
+                }
+                return reg;
+            } catch (ReflectiveOperationException e) {
+                if (text == null) {
+                    throw new IOException("block table could not be loaded", e);
+                }
+                // fall back to the text file
+            }
+        }
+
+        if (text == null) {
+            throw new IOException("resource not found: /functions.txt");
+        }
+        try (BlockRegistryReader r = new BlockRegistryReader(text.openStream())) {
+            return r.read();
+        }
+    }
+
+    private static BlockRegistry readLibrary(Path library) throws IOException, BlockRegistryReaderException
+    {
+        try (BlockRegistryReader r = new BlockRegistryReader(Files.newInputStream(library))) {
+            return r.read();
+        }
+    }
+
+    /**
+     * Checks whether the given resource derived from the text registry exists
+     * and is not older than the text registry.
+     *
+     * @param derived The derived resource, or null if it does not exist.
+     * @param text The text registry, or null if it does not exist.
+     * @return Whether the derived resource can be used.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    private static boolean isUpToDate(URL derived, URL text) throws IOException
+    {
+        return derived != null && (text == null || lastModified(derived) >= lastModified(text));
+    }
+
+    private static long lastModified(URL url) throws IOException
+    {
+        return url.openConnection().getLastModified();
+    }
+}
@@ -6,6 +6,7 @@ import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import structogram2byob.ScratchType;
 import structogram2byob.program.ScratchConversionException;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableMap;
 import structogram2byob.program.expressions.Expression;
 
@@ -21,6 +22,7 @@ import structogram2byob.program.expressions.Expression;
 public class FunctionBlock extends Block
 {
     private final String method;
+    private final ScratchObjectSymbol methodSymbol;
 
     /**
      * Constructs a new function block with the given description, return type,
@@ -34,6 +36,7 @@ public class FunctionBlock extends Block
     {
         super(desc, returnType);
         this.method = method;
+        this.methodSymbol = ScratchObjectPool.instance.symbol(method);
     }
 
     /**
@@ -44,13 +47,26 @@ public class FunctionBlock extends Block
         return method;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Function blocks that report a value are shareable, since they serialize
+     * to nothing but their method and parameters.
+     */
+    @Override
+    public boolean isShareable()
+    {
+        return getReturnType() != null;
+    }
+
     @Override
     public ScratchObjectArray toScratch(List<Expression> params,
             VariableMap vars, BlockRegistry blocks) throws ScratchConversionException
     {
         ScratchObjectArray a = new ScratchObjectArray();
 
-        a.add(new ScratchObjectSymbol(method));
+        a.add(methodSymbol);
 
         for (Expression e : params) {
             a.add(e.toScratch(vars, blocks));
@@ -4,10 +4,10 @@ import java.util.List;
 
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import scratchlib.objects.fixed.data.ScratchObjectString;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableMap;
 import structogram2byob.program.expressions.Expression;
 
@@ -35,7 +35,7 @@ public class StartClickedHatBlock extends Block
     {
         ScratchObjectArray a = new ScratchObjectArray();
 
-        a.add(new ScratchObjectSymbol("EventHatMorph"));
+        a.add(ScratchObjectPool.instance.symbol("EventHatMorph"));
         a.add(new ScratchObjectString("Scratch-StartClicked"));
 
         return a;
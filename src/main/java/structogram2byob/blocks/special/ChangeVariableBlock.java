@@ -1,15 +1,17 @@
 package structogram2byob.blocks.special;
 
 import java.util.List;
+import java.util.Set;
 
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.fixed.data.ScratchObjectUtf8;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.program.Linker;
 import structogram2byob.program.ScratchConversionException;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableContext;
 import structogram2byob.program.VariableMap;
 import structogram2byob.program.expressions.Expression;
@@ -33,6 +35,13 @@ public class ChangeVariableBlock extends Block
         super(description, null);
     }
 
+    @Override
+    public void link(List<Expression> params, Set<String> variables, Linker linker)
+    {
+        // the first parameter is the variable name, which is not evaluated
+        params.get(1).link(variables, linker);
+    }
+
     @Override
     public ScratchObjectArray toScratch(List<Expression> params, VariableMap vars, BlockRegistry blocks)
             throws ScratchConversionException
@@ -42,9 +51,9 @@ public class ChangeVariableBlock extends Block
 
         ScratchObjectArray a = new ScratchObjectArray();
 
-        a.add(new ScratchObjectSymbol(context.requiresBYOB() ? "changeBlockVariable" : "changeVariable"));
+        a.add(ScratchObjectPool.instance.symbol(context.requiresBYOB() ? "changeBlockVariable" : "changeVariable"));
         a.add(new ScratchObjectUtf8(name));
-        a.add(new ScratchObjectSymbol("changeVar:by:"));
+        a.add(ScratchObjectPool.instance.symbol("changeVar:by:"));
 
         if (context.requiresBYOB()) {
             a.add(context.getWriteMarker());
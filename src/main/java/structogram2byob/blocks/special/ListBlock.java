@@ -3,8 +3,6 @@ package structogram2byob.blocks.special;
 import java.util.List;
 
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
-import scratchlib.objects.fixed.data.ScratchObjectString;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.fixed.dimensions.ScratchObjectRectangle;
 import scratchlib.objects.user.morphs.ScratchObjectListMorph;
 import structogram2byob.ScratchType;
@@ -12,6 +10,7 @@ import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
 import structogram2byob.program.ScratchConversionException;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableMap;
 import structogram2byob.program.expressions.Expression;
 
@@ -40,9 +39,9 @@ public class ListBlock extends Block
     {
         ScratchObjectArray a = new ScratchObjectArray();
 
-        a.add(new ScratchObjectSymbol("byob"));
-        a.add(new ScratchObjectString(""));
-        a.add(new ScratchObjectSymbol("newList:"));
+        a.add(ScratchObjectPool.instance.symbol("byob"));
+        a.add(ScratchObjectPool.instance.emptyString());
+        a.add(ScratchObjectPool.instance.symbol("newList:"));
 
         ScratchObjectListMorph list = new ScratchObjectListMorph();
         list.setField(ScratchObjectListMorph.FIELD_BOUNDS, new ScratchObjectRectangle(0, 0, 95, 115));
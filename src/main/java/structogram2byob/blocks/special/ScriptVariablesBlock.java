@@ -3,16 +3,17 @@ package structogram2byob.blocks.special;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
-import scratchlib.objects.fixed.data.ScratchObjectString;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.fixed.data.ScratchObjectUtf8;
 import scratchlib.objects.user.ScratchObjectVariableFrame;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.program.Linker;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableMap;
 import structogram2byob.program.expressions.Expression;
 
@@ -35,23 +36,29 @@ public class ScriptVariablesBlock extends Block
         super(description, null);
     }
 
+    @Override
+    public void link(List<Expression> params, Set<String> variables, Linker linker)
+    {
+        // all parameters are variable names, which are not evaluated
+    }
+
     @Override
     public ScratchObjectArray toScratch(List<Expression> params, VariableMap vars, BlockRegistry blocks)
     {
         ScratchObjectArray a = new ScratchObjectArray();
 
-        a.add(new ScratchObjectSymbol("byob"));
-        a.add(new ScratchObjectString(""));
-        a.add(new ScratchObjectSymbol("doDeclareVariables"));
+        a.add(ScratchObjectPool.instance.symbol("byob"));
+        a.add(ScratchObjectPool.instance.emptyString());
+        a.add(ScratchObjectPool.instance.symbol("doDeclareVariables"));
 
         for (Expression param : params) {
             String name = asVariableName(param);
 
             ScratchObjectArray pa = new ScratchObjectArray();
 
-            pa.add(new ScratchObjectSymbol("byob"));
-            pa.add(new ScratchObjectString(""));
-            pa.add(new ScratchObjectSymbol("readBlockVariable"));
+            pa.add(ScratchObjectPool.instance.symbol("byob"));
+            pa.add(ScratchObjectPool.instance.emptyString());
+            pa.add(ScratchObjectPool.instance.symbol("readBlockVariable"));
             pa.add(new ScratchObjectUtf8(name));
             pa.add(new ScratchObjectVariableFrame());
 
@@ -3,12 +3,12 @@ package structogram2byob.blocks.structures;
 import java.util.List;
 
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
 import structogram2byob.program.ScratchConversionException;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableMap;
 import structogram2byob.program.expressions.Expression;
 
@@ -37,7 +37,7 @@ public class IfBlock extends Block
     {
         ScratchObjectArray a = new ScratchObjectArray();
 
-        a.add(new ScratchObjectSymbol("doIf"));
+        a.add(ScratchObjectPool.instance.symbol("doIf"));
 
         // condition
         a.add(params.get(0).toScratch(vars, blocks));
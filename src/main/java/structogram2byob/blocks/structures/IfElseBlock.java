@@ -3,12 +3,12 @@ package structogram2byob.blocks.structures;
 import java.util.List;
 
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
 import structogram2byob.program.ScratchConversionException;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableMap;
 import structogram2byob.program.expressions.Expression;
 
@@ -38,7 +38,7 @@ public class IfElseBlock extends Block
     {
         ScratchObjectArray a = new ScratchObjectArray();
 
-        a.add(new ScratchObjectSymbol("doIfElse"));
+        a.add(ScratchObjectPool.instance.symbol("doIfElse"));
 
         // condition
         a.add(params.get(0).toScratch(vars, blocks));
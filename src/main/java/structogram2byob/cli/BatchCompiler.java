@@ -0,0 +1,613 @@
+package structogram2byob.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import nsdlib.elements.NSDRoot;
+import nsdlib.reader.NSDReaderException;
+import scratchlib.project.ScratchProject;
+import scratchlib.writer.ScratchWriter;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.blocks.BlockRegistryReaderException;
+import structogram2byob.blocks.DefaultBlockRegistry;
+import structogram2byob.parser.nsd.NSDParser;
+import structogram2byob.parser.nsd.NSDParserException;
+import structogram2byob.parser.nsd.StructorizerStreamReader;
+import structogram2byob.program.Program;
+import structogram2byob.program.ScratchConversionException;
+import structogram2byob.server.CompileServer;
+
+
+/**
+ * Headless compiler for many projects at once. It does not depend on any
+ * AWT or Swing classes.
+ *
+ * <p>
+ * A project consists either of a single diagram file, or of all diagram files
+ * directly inside a directory. Every directory below a given directory that
+ * contains diagram files is a project of its own, so that a directory of
+ * submissions can be compiled with a single call. The project is written next
+ * to its input, i.e. {@code foo.nsd} is compiled into {@code foo.ypr} and the
+ * directory {@code foo} into {@code foo.ypr} beside it.
+ *
+ * <p>
+ * Projects are compiled independently of each other on a work-stealing pool,
+ * all sharing the same frozen base registry. For every project, one
+ * tab-separated line is printed in input order:
+ *
+ * <pre>
+ * status  millis  project  detail
+ * </pre>
+ *
+ * where status is {@code ok} (with the output file as detail) or
+ * {@code failed} (with the error message as detail). A final line with status
+ * {@code total} gives the wall-clock time, the number of projects and the
+ * number of failures.
+ *
+ * <p>
+ * With {@code -b <file>}, the function blocks are read from the given block
+ * library (in the format of {@code functions.txt}) instead of the packaged
+ * ones.
+ *
+ * <p>
+ * With {@code -c <dir>}, compiled projects are kept in a persistent cache in
+ * the given directory (see {@link CompileCache}). Projects whose diagrams are
+ * all unchanged since a previous run are then copied from the cache instead
+ * of being compiled, and reported with status {@code cached}.
+ *
+ * <p>
+ * With {@code -w}, the projects are compiled once and then kept up to date
+ * while their diagrams change (see {@link WatchCompiler}). With
+ * {@code -s <port>}, no projects are given; instead, a local compile service
+ * is run on the given port (see {@link CompileServer}).
+ */
+public class BatchCompiler
+{
+    /**
+     * The file extension of diagram files.
+     */
+    public static final String INPUT_EXTENSION = ".nsd";
+
+    /**
+     * The file extension of compiled projects.
+     */
+    public static final String OUTPUT_EXTENSION = ".ypr";
+
+    private static final String USAGE = "usage: structogram2byob [-j <threads>] [-b <blocks file>] [-c <cache dir>] [-w]"
+            + " <file or directory>...\n"
+            + "       structogram2byob [-j <threads>] [-b <blocks file>] -s <port>";
+
+    private final BlockRegistry blocks;
+    private final int parallelism;
+
+    private CompileCache cache;
+
+    /**
+     * @param blocks The available blocks, excluding custom blocks. Must be
+     *            frozen, as it is shared by all threads.
+     * @param parallelism The number of projects to compile concurrently.
+     */
+    public BatchCompiler(BlockRegistry blocks, int parallelism)
+    {
+        if (!blocks.isFrozen()) {
+            throw new IllegalArgumentException("registry must be frozen");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.blocks = blocks;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the cache for compiled projects. It must have been opened for the
+     * same registry as this compiler.
+     *
+     * @param cache The cache, or null to always compile.
+     */
+    public void setCache(CompileCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Command-line entry point. Loads the default block registry, compiles all
+     * projects found at the given paths and prints the summary.
+     *
+     * @param args The command-line arguments.
+     * @param out The stream for the summary.
+     * @param err The stream for usage and fatal error messages.
+     * @return The exit status: 0 if all projects were compiled (or watching
+     *         was interrupted), 1 if any failed, 2 if the arguments were
+     *         invalid, or the blocks or files could not be loaded.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err)
+    {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        boolean watch = false;
+        int port = -1;
+        Path cacheDir = null;
+        Path library = null;
+        List<Path> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                try {
+                    parallelism = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    parallelism = 0;
+                }
+                if (parallelism < 1) {
+                    err.println(USAGE);
+                    return 2;
+                }
+            } else if (args[i].equals("-s") && i + 1 < args.length) {
+                try {
+                    port = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    port = -1;
+                }
+                if (port < 0 || port > 65535) {
+                    err.println(USAGE);
+                    return 2;
+                }
+            } else if (args[i].equals("-b") && i + 1 < args.length) {
+                library = new File(args[++i]).toPath();
+            } else if (args[i].equals("-c") && i + 1 < args.length) {
+                cacheDir = new File(args[++i]).toPath();
+            } else if (args[i].equals("-w")) {
+                watch = true;
+            } else if (args[i].startsWith("-")) {
+                err.println(USAGE);
+                return 2;
+            } else {
+                paths.add(new File(args[i]).toPath());
+            }
+        }
+
+        if (port >= 0) {
+            if (!paths.isEmpty() || watch || cacheDir != null) {
+                err.println(USAGE);
+                return 2;
+            }
+            return serve(port, library, parallelism, out, err);
+        }
+
+        if (paths.isEmpty()) {
+            err.println(USAGE);
+            return 2;
+        }
+
+        List<Project> projects;
+        BlockRegistry blocks;
+        try {
+            projects = findProjects(paths);
+            blocks = DefaultBlockRegistry.load(library);
+        } catch (IOException | BlockRegistryReaderException e) {
+            err.println("error: " + describe(e));
+            return 2;
+        }
+
+        if (watch) {
+            return watch(blocks, projects, out, err);
+        }
+
+        BatchCompiler compiler = new BatchCompiler(blocks, parallelism);
+        if (cacheDir != null) {
+            try {
+                compiler.setCache(new CompileCache(cacheDir, blocks, CompileCache.DEFAULT_MAX_BYTES));
+            } catch (IOException e) {
+                err.println("error: " + describe(e));
+                return 2;
+            }
+        }
+
+        List<Result> results = compiler.compile(projects, out);
+
+        for (Result r : results) {
+            if (!r.isSuccess()) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int serve(int port, Path library, int parallelism, PrintStream out, PrintStream err)
+    {
+        CompileServer server;
+        try {
+            server = new CompileServer(DefaultBlockRegistry.load(library), port, parallelism, 4 * parallelism,
+                    CompileServer.DEFAULT_MAX_REQUEST_BYTES, CompileServer.DEFAULT_TIMEOUT_MILLIS);
+        } catch (IOException | BlockRegistryReaderException e) {
+            err.println("error: " + describe(e));
+            return 2;
+        }
+
+        server.start();
+        out.println("listening on http://localhost:" + server.getPort() + "/");
+        out.flush();
+
+        // serve until the process is terminated
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            server.stop();
+        }
+        return 0;
+    }
+
+    private static int watch(BlockRegistry blocks, List<Project> projects, PrintStream out, PrintStream err)
+    {
+        WatchCompiler watcher = new WatchCompiler(blocks, projects, WatchCompiler.DEFAULT_QUIET_MILLIS, out);
+        watcher.compileAll();
+        try {
+            watcher.watch();
+        } catch (IOException e) {
+            err.println("error: " + describe(e));
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    /**
+     * Finds all projects at the given paths, in the order of the paths. Within
+     * a directory, projects and their diagrams are sorted by path.
+     *
+     * @param paths Diagram files or directories.
+     * @return The projects.
+     *
+     * @throws IOException If a directory cannot be traversed, or a path does not exist.
+     */
+    public static List<Project> findProjects(List<Path> paths) throws IOException
+    {
+        List<Project> projects = new ArrayList<>();
+
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                projects.addAll(findProjects(path));
+            } else if (Files.exists(path)) {
+                projects.add(new Project(path.toString(), null, Collections.singletonList(path.toFile()),
+                        withExtension(path, OUTPUT_EXTENSION)));
+            } else {
+                throw new IOException("no such file or directory: " + path);
+            }
+        }
+
+        return projects;
+    }
+
+    private static List<Project> findProjects(Path dir) throws IOException
+    {
+        Map<Path, List<File>> diagrams = new TreeMap<>();
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted().collect(Collectors.toList())) {
+                if (isDiagram(file)) {
+                    diagrams.computeIfAbsent(file.getParent(), k -> new ArrayList<>()).add(file.toFile());
+                }
+            }
+        }
+
+        List<Project> projects = new ArrayList<>();
+        for (Map.Entry<Path, List<File>> entry : diagrams.entrySet()) {
+            Path projectDir = entry.getKey().toAbsolutePath().normalize();
+            Path name = projectDir.getFileName();
+            File output = projectDir.resolveSibling((name == null ? "project" : name.toString()) + OUTPUT_EXTENSION)
+                    .toFile();
+            projects.add(new Project(entry.getKey().toString(), entry.getKey(), entry.getValue(), output));
+        }
+        return projects;
+    }
+
+    /**
+     * @param file The path to check.
+     * @return Whether the given path is an existing diagram file.
+     */
+    static boolean isDiagram(Path file)
+    {
+        return file.getFileName().toString().toLowerCase().endsWith(INPUT_EXTENSION) && Files.isRegularFile(file);
+    }
+
+    private static File withExtension(Path file, String extension)
+    {
+        String name = file.getFileName().toString();
+        if (name.toLowerCase().endsWith(INPUT_EXTENSION)) {
+            name = name.substring(0, name.length() - INPUT_EXTENSION.length());
+        }
+        return file.resolveSibling(name + extension).toFile();
+    }
+
+    /**
+     * Compiles all given projects concurrently. The summary line of every
+     * project is printed as soon as it and all projects before it are done.
+     *
+     * @param projects The projects to compile.
+     * @param out The stream for the summary, or null to print nothing.
+     * @return The results, in project order.
+     */
+    public List<Result> compile(List<Project> projects, PrintStream out)
+    {
+        long start = System.nanoTime();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<Result> results = new ArrayList<>();
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+            for (Project p : projects) {
+                tasks.add(pool.submit(() -> compile(p)));
+            }
+
+            for (ForkJoinTask<Result> task : tasks) {
+                Result r = task.join();
+                results.add(r);
+                if (out != null) {
+                    String status = !r.isSuccess() ? "failed" : r.isCached() ? "cached" : "ok";
+                    printRow(out, status, r.getMillis(), r.getProject().getName(),
+                            r.isSuccess() ? r.getProject().getOutput().getPath() : r.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (out != null) {
+            long failed = results.stream().filter(r -> !r.isSuccess()).count();
+            printRow(out, "total", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    Integer.toString(results.size()), failed + " failed");
+            out.flush();
+        }
+
+        return results;
+    }
+
+    static void printRow(PrintStream out, String status, long millis, String project, String detail)
+    {
+        out.println(status + '\t' + millis + '\t' + escape(project) + '\t' + escape(detail));
+    }
+
+    private static String escape(String s)
+    {
+        return s.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Compiles the given project and writes it to its output file, or copies
+     * it from the cache if possible. Errors are never thrown, but reported as
+     * part of the result.
+     *
+     * @param project The project to compile.
+     * @return The result.
+     */
+    public Result compile(Project project)
+    {
+        long start = System.nanoTime();
+        String message = null;
+        boolean cached = false;
+
+        try {
+            List<byte[]> contents = new ArrayList<>();
+            for (File diagram : project.getDiagrams()) {
+                message = diagram.getPath() + ": ";
+                contents.add(Files.readAllBytes(diagram.toPath()));
+            }
+
+            String key = cache != null ? cache.key(contents) : null;
+            byte[] output = key != null ? getCached(key) : null;
+
+            if (output != null) {
+                message = project.getOutput().getPath() + ": ";
+                Files.write(project.getOutput().toPath(), output);
+                cached = true;
+            } else {
+                Program program = new Program();
+                for (int i = 0; i < contents.size(); ++i) {
+                    message = project.getDiagrams().get(i).getPath() + ": ";
+                    program.addUnit(new NSDParser(read(contents.get(i))).parse());
+                }
+
+                message = "";
+                ScratchProject scratch = program.toScratch(blocks);
+
+                message = project.getOutput().getPath() + ": ";
+                new ScratchWriter(project.getOutput()).write(scratch);
+
+                if (key != null) {
+                    putCached(key, Files.readAllBytes(project.getOutput().toPath()));
+                }
+            }
+
+            message = null;
+        } catch (IOException | NSDReaderException | NSDParserException | ScratchConversionException e) {
+            message += describe(e);
+        } catch (RuntimeException e) {
+            // do not let a single broken project abort the whole batch
+            message += "internal error: " + e;
+        }
+
+        return new Result(project, message, cached, System.nanoTime() - start);
+    }
+
+    /**
+     * A cache that cannot be read behaves like an empty one.
+     */
+    private byte[] getCached(String key)
+    {
+        try {
+            return cache.get(key);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A cache that cannot be written is simply not filled.
+     */
+    private void putCached(String key, byte[] output)
+    {
+        try {
+            cache.put(key, output);
+        } catch (IOException e) {
+            // the project itself was written successfully
+        }
+    }
+
+    static NSDRoot read(File file) throws IOException, NSDReaderException
+    {
+        try (InputStream in = new FileInputStream(file)) {
+            return new StructorizerStreamReader().read(in);
+        }
+    }
+
+    private static NSDRoot read(byte[] contents) throws IOException, NSDReaderException
+    {
+        return new StructorizerStreamReader().read(new ByteArrayInputStream(contents));
+    }
+
+    static String describe(Exception e)
+    {
+        if (e.getMessage() != null) {
+            return e.getMessage();
+        }
+        return e.getCause() != null ? e.getCause().toString() : e.getClass().getSimpleName();
+    }
+
+    /**
+     * A set of diagrams that are compiled into one project file.
+     */
+    public static class Project
+    {
+        private final String name;
+        private final Path directory;
+        private final List<File> diagrams;
+        private final File output;
+
+        /**
+         * @param name The name used in the summary.
+         * @param directory The directory whose diagrams form the project, or
+         *            null if the project consists of the given diagrams only.
+         * @param diagrams The diagram files, in unit order.
+         * @param output The file to write the project to.
+         */
+        public Project(String name, Path directory, List<File> diagrams, File output)
+        {
+            this.name = name;
+            this.directory = directory;
+            this.diagrams = Collections.unmodifiableList(new ArrayList<>(diagrams));
+            this.output = output;
+        }
+
+        /**
+         * @return The name used in the summary.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return The directory whose diagrams form the project, or null if
+         *         the project consists of a fixed set of diagrams.
+         */
+        public Path getDirectory()
+        {
+            return directory;
+        }
+
+        /**
+         * @return The diagram files, in unit order.
+         */
+        public List<File> getDiagrams()
+        {
+            return diagrams;
+        }
+
+        /**
+         * @return The file to write the project to.
+         */
+        public File getOutput()
+        {
+            return output;
+        }
+    }
+
+    /**
+     * The outcome of compiling a single project.
+     */
+    public static class Result
+    {
+        private final Project project;
+        private final String message;
+        private final boolean cached;
+        private final long nanos;
+
+        private Result(Project project, String message, boolean cached, long nanos)
+        {
+            this.project = project;
+            this.message = message;
+            this.cached = cached;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return The project.
+         */
+        public Project getProject()
+        {
+            return project;
+        }
+
+        /**
+         * @return Whether the project was compiled and written.
+         */
+        public boolean isSuccess()
+        {
+            return message == null;
+        }
+
+        /**
+         * @return Whether the project was copied from the cache instead of
+         *         being compiled.
+         */
+        public boolean isCached()
+        {
+            return cached;
+        }
+
+        /**
+         * @return The error message, or null if successful.
+         */
+        public String getMessage()
+        {
+            return message;
+        }
+
+        /**
+         * @return The time spent on this project, in milliseconds.
+         */
+        public long getMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
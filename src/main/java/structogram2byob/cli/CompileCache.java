@@ -0,0 +1,395 @@
+package structogram2byob.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import structogram2byob.blocks.Block;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.blocks.FunctionBlock;
+
+
+/**
+ * Persistent, content-addressed cache of compiled projects.
+ *
+ * <p>
+ * Entries are keyed by the hashes of a project's diagrams, in order, together
+ * with a fingerprint of the base block registry and the compiler build. The
+ * fingerprint covers every block the registry provides, however it was loaded,
+ * and every class of the compiler, so entries are invalidated automatically
+ * when either changes: each fingerprint has a directory of its own, and
+ * directories of other fingerprints are deleted when a cache is opened.
+ *
+ * <p>
+ * The cache holds the complete output of a project, since the serialized form
+ * of a unit depends on the custom blocks of the other units. Once the total
+ * size of the entries exceeds the limit, the least recently used ones are
+ * deleted until a quarter of the limit is free again. Entries are written to a
+ * temporary file first and then moved into place, so concurrent readers, in
+ * this process or others, never see partial entries. This class is
+ * thread-safe.
+ */
+public class CompileCache
+{
+    /**
+     * The default maximum total size of all entries.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String ENTRY_EXTENSION = ".ypr";
+
+    private final Path dir;
+    private final String fingerprint;
+    private final long maxBytes;
+
+    private final AtomicLong size = new AtomicLong();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+    /**
+     * Opens the cache in the given directory for the given registry, deleting
+     * all entries created for other registries.
+     *
+     * @param root The cache directory, which is created if necessary.
+     * @param blocks The base registry the cached projects are compiled with.
+     * @param maxBytes The maximum total size of all entries.
+     *
+     * @throws IOException If the directory cannot be created or read.
+     */
+    public CompileCache(Path root, BlockRegistry blocks, long maxBytes) throws IOException
+    {
+        this.fingerprint = fingerprint(blocks);
+        this.dir = root.resolve(fingerprint);
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(dir);
+
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(root,
+                p -> Files.isDirectory(p) && isHash(p.getFileName().toString()) && !p.equals(dir))) {
+            for (Path p : stale) {
+                deleteEntries(p);
+            }
+        }
+
+        long total = 0;
+        for (Entry e : listEntries()) {
+            total += e.size;
+        }
+        size.set(total);
+    }
+
+    /**
+     * Computes the fingerprint of the given registry, including its base
+     * registries: a hash over the type, description and return type of every
+     * block, and the method of every function block, in iteration order, since
+     * that decides ambiguous lookups. The build of the compiler (see
+     * {@link #getBuildId()}) is included as well, since it determines the
+     * output too.
+     *
+     * @param blocks The registry.
+     * @return The fingerprint, as a hexadecimal string.
+     */
+    public static String fingerprint(BlockRegistry blocks)
+    {
+        MessageDigest digest = newDigest();
+        digest.update((getBuildId() + '\n').getBytes(StandardCharsets.UTF_8));
+
+        for (BlockRegistry reg = blocks; reg != null; reg = reg.getBase()) {
+            for (Block block : reg.getBlocks()) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(block.getClass().getName()).append('\t').append(block.getDescription()).append('\t')
+                        .append(block.getReturnType());
+                if (block instanceof FunctionBlock) {
+                    sb.append('\t').append(((FunctionBlock) block).getMethod());
+                }
+                digest.update(sb.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            }
+            // separate the registries, so that blocks cannot move between them unnoticed
+            digest.update((byte) 0);
+        }
+
+        return hex(digest.digest());
+    }
+
+    /**
+     * Identifies the build of the compiler: a hash over the contents of the jar
+     * file or class directory this class was loaded from, including the
+     * generated block table. If the location cannot be read, a random value is
+     * used, so that entries are not shared with other processes. Computed once.
+     *
+     * @return The build identifier, as a hexadecimal string.
+     */
+    static String getBuildId()
+    {
+        return BuildId.VALUE;
+    }
+
+    private static String computeBuildId()
+    {
+        CodeSource source = CompileCache.class.getProtectionDomain().getCodeSource();
+        if (source != null && source.getLocation() != null) {
+            try {
+                Path location = Paths.get(source.getLocation().toURI());
+                MessageDigest digest = newDigest();
+                if (Files.isDirectory(location)) {
+                    List<Path> files;
+                    try (Stream<Path> s = Files.walk(location)) {
+                        files = s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                    }
+                    for (Path p : files) {
+                        digest.update((location.relativize(p).toString().replace('\\', '/') + '\n')
+                                .getBytes(StandardCharsets.UTF_8));
+                        digest.update(hashFile(p));
+                    }
+                } else {
+                    digest.update(hashFile(location));
+                }
+                return hex(digest.digest());
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                // fall back to the random identifier
+            }
+        }
+        return hex(newDigest().digest(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] hashFile(Path file) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Computes the key of a project consisting of the given diagrams.
+     *
+     * @param diagrams The contents of the diagram files, in unit order.
+     * @return The key, as a hexadecimal string.
+     */
+    public String key(List<byte[]> diagrams)
+    {
+        MessageDigest digest = newDigest();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        for (byte[] diagram : diagrams) {
+            // hash each diagram separately, so that boundaries cannot shift
+            digest.update(newDigest().digest(diagram));
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Returns the project stored under the given key, marking it as recently
+     * used.
+     *
+     * @param key The key (see {@link #key(List)}).
+     * @return The project file's contents, or null if there is no entry.
+     *
+     * @throws IOException If the entry exists but cannot be read.
+     */
+    public byte[] get(String key) throws IOException
+    {
+        Path entry = dir.resolve(key + ENTRY_EXTENSION);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(entry);
+        } catch (NoSuchFileException e) {
+            misses.increment();
+            return null;
+        }
+
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted concurrently; the contents read are still valid
+        }
+
+        hits.increment();
+        return bytes;
+    }
+
+    /**
+     * Stores the given project under the given key, evicting the least
+     * recently used entries if the size limit is exceeded.
+     *
+     * @param key The key (see {@link #key(List)}).
+     * @param project The project file's contents.
+     *
+     * @throws IOException If the entry cannot be written.
+     */
+    public void put(String key, byte[] project) throws IOException
+    {
+        Path entry = dir.resolve(key + ENTRY_EXTENSION);
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.write(tmp, project);
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        if (size.addAndGet(project.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * @return The number of lookups that found an entry.
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that found no entry.
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return The approximate total size of all entries.
+     */
+    public long getSize()
+    {
+        return size.get();
+    }
+
+    /**
+     * Deletes the least recently used entries until a quarter of the size
+     * limit is free. The size is recomputed from the directory, which also
+     * accounts for entries written by other processes.
+     */
+    private synchronized void evict() throws IOException
+    {
+        List<Entry> entries = listEntries();
+        entries.sort(Comparator.comparingLong((Entry e) -> e.lastModified));
+
+        long total = 0;
+        for (Entry e : entries) {
+            total += e.size;
+        }
+
+        long target = maxBytes - maxBytes / 4;
+        for (Entry e : entries) {
+            if (total <= target) {
+                break;
+            }
+            Files.deleteIfExists(e.path);
+            total -= e.size;
+        }
+
+        size.set(total);
+    }
+
+    private List<Entry> listEntries() throws IOException
+    {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + ENTRY_EXTENSION)) {
+            for (Path p : files) {
+                try {
+                    entries.add(new Entry(p, Files.size(p), Files.getLastModifiedTime(p).toMillis()));
+                } catch (NoSuchFileException e) {
+                    // evicted concurrently
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Deletes the entries and temporary files in the given directory, and the
+     * directory itself if nothing else is left.
+     */
+    private static void deleteEntries(Path dir) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.{ypr,tmp}")) {
+            for (Path p : files) {
+                Files.deleteIfExists(p);
+            }
+        }
+        try {
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // not empty, so it is not ours alone
+        }
+    }
+
+    private static boolean isHash(String name)
+    {
+        return name.length() == 64 && name.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Holder of the build identifier, which is computed on first use.
+     */
+    private static class BuildId
+    {
+        private static final String VALUE = computeBuildId();
+    }
+
+    /**
+     * A cache entry on disk.
+     */
+    private static class Entry
+    {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private Entry(Path path, long size, long lastModified)
+        {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
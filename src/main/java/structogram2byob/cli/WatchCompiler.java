@@ -0,0 +1,386 @@
+package structogram2byob.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import nsdlib.reader.NSDReaderException;
+import scratchlib.project.ScratchProject;
+import scratchlib.writer.ScratchWriter;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.parser.nsd.NSDParser;
+import structogram2byob.parser.nsd.NSDParserException;
+import structogram2byob.program.CompilationSession;
+import structogram2byob.program.ProgramUnit;
+import structogram2byob.program.ScratchConversionException;
+
+
+/**
+ * Keeps projects compiled while their diagrams are being edited.
+ *
+ * <p>
+ * The registry and the parsed units of every project stay in memory. When a
+ * diagram changes, only that file is read and parsed again, and the project is
+ * recompiled incrementally (see {@link CompilationSession}). Bursts of file
+ * events, as caused by a single save, are coalesced into one update. The
+ * output is only rewritten if its contents changed.
+ *
+ * <p>
+ * Diagrams created in or deleted from a project directory are added to or
+ * removed from that project; new directories do not form new projects. Status
+ * lines are printed just like for {@link BatchCompiler}, with the additional
+ * status {@code unchanged} for projects whose output was not rewritten.
+ */
+public class WatchCompiler
+{
+    /**
+     * The default time without file events after which changes are compiled.
+     */
+    public static final long DEFAULT_QUIET_MILLIS = 100;
+
+    private final List<ProjectState> projects = new ArrayList<>();
+    private final long quietMillis;
+    private final PrintStream out;
+
+    /**
+     * @param blocks The available blocks, excluding custom blocks.
+     * @param projects The projects to keep compiled.
+     * @param quietMillis The time without file events after which changes are
+     *            compiled.
+     * @param out The stream for status lines.
+     */
+    public WatchCompiler(BlockRegistry blocks, List<BatchCompiler.Project> projects, long quietMillis,
+            PrintStream out)
+    {
+        for (BatchCompiler.Project p : projects) {
+            this.projects.add(new ProjectState(p, new CompilationSession(blocks)));
+        }
+        this.quietMillis = quietMillis;
+        this.out = out;
+    }
+
+    /**
+     * Parses and compiles all projects, writing their output.
+     */
+    public void compileAll()
+    {
+        for (ProjectState s : projects) {
+            long start = System.nanoTime();
+            for (Path file : s.files) {
+                load(s, file);
+            }
+            write(s, start);
+        }
+        out.flush();
+    }
+
+    /**
+     * Watches the directories of all projects and updates the projects on
+     * changes, until the thread is interrupted.
+     *
+     * @throws IOException If the directories cannot be watched.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public void watch() throws IOException, InterruptedException
+    {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> dirs = new HashMap<>();
+            for (ProjectState s : projects) {
+                Path dir = s.getWatchedDirectory();
+                if (!dirs.containsValue(dir)) {
+                    dirs.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                }
+            }
+
+            while (true) {
+                Set<Path> changed = new HashSet<>();
+                boolean overflow = false;
+
+                // coalesce bursts: collect events until none arrive for the quiet period
+                WatchKey key = service.take();
+                while (key != null) {
+                    Path dir = dirs.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            Path file = dir.resolve((Path) event.context());
+                            // ignore everything else, in particular our own output
+                            if (isDiagramName(file)) {
+                                changed.add(file);
+                            }
+                        }
+                    }
+                    key.reset();
+                    key = service.poll(quietMillis, TimeUnit.MILLISECONDS);
+                }
+
+                if (overflow) {
+                    changed.addAll(findAllDiagrams());
+                }
+                if (!changed.isEmpty()) {
+                    update(changed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates all projects affected by the given changed files: modified and
+     * created diagrams are parsed again, deleted ones are removed, and the
+     * projects are recompiled.
+     *
+     * @param changed The changed files.
+     */
+    public void update(Collection<Path> changed)
+    {
+        Set<Path> files = changed.stream().map(p -> p.toAbsolutePath().normalize()).collect(Collectors.toSet());
+
+        for (ProjectState s : projects) {
+            if (s.isAffectedBy(files)) {
+                update(s, files);
+            }
+        }
+        out.flush();
+    }
+
+    private void update(ProjectState s, Set<Path> changed)
+    {
+        long start = System.nanoTime();
+
+        List<Path> previous = s.files;
+        if (s.directory != null) {
+            try {
+                s.files = listDiagrams(s.directory);
+            } catch (IOException e) {
+                BatchCompiler.printRow(out, "failed", 0, s.project.getName(), BatchCompiler.describe(e));
+                return;
+            }
+        }
+
+        for (Path file : previous) {
+            if (!s.files.contains(file)) {
+                unload(s, file);
+            }
+        }
+        for (Path file : s.files) {
+            if (changed.contains(file) || !previous.contains(file)) {
+                load(s, file);
+            }
+        }
+
+        write(s, start);
+    }
+
+    private Set<Path> findAllDiagrams()
+    {
+        Set<Path> all = new HashSet<>();
+        for (ProjectState s : projects) {
+            all.addAll(s.files);
+            if (s.directory != null) {
+                try {
+                    all.addAll(listDiagrams(s.directory));
+                } catch (IOException e) {
+                    // reported when the project is updated
+                }
+            }
+        }
+        return all;
+    }
+
+    private static List<Path> listDiagrams(Path dir) throws IOException
+    {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(BatchCompiler::isDiagram).map(p -> p.toAbsolutePath().normalize()).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isDiagramName(Path file)
+    {
+        return file.getFileName().toString().toLowerCase().endsWith(BatchCompiler.INPUT_EXTENSION);
+    }
+
+    /**
+     * Reads and parses the given diagram, and puts the resulting unit into the
+     * project's session in place of the previous one.
+     */
+    private void load(ProjectState s, Path file)
+    {
+        ProgramUnit unit = null;
+        String error = null;
+        try {
+            unit = new NSDParser(BatchCompiler.read(file.toFile())).parse();
+        } catch (IOException | NSDReaderException | NSDParserException e) {
+            error = file + ": " + BatchCompiler.describe(e);
+        }
+
+        ProgramUnit old = s.units.remove(file);
+        s.errors.remove(file);
+
+        if (unit == null) {
+            s.errors.put(file, error);
+            if (old != null) {
+                s.session.remove(old);
+            }
+        } else if (old != null) {
+            s.units.put(file, unit);
+            s.session.replace(old, unit);
+        } else {
+            s.session.add(s.indexOf(file), unit);
+            s.units.put(file, unit);
+        }
+    }
+
+    private void unload(ProjectState s, Path file)
+    {
+        ProgramUnit old = s.units.remove(file);
+        s.errors.remove(file);
+        if (old != null) {
+            s.session.remove(old);
+        }
+    }
+
+    /**
+     * Compiles the given project and writes its output if it changed, then
+     * prints the status line.
+     */
+    private void write(ProjectState s, long start)
+    {
+        String status;
+        String detail = s.project.getOutput().getPath();
+
+        String error = s.getFirstError();
+        if (error != null) {
+            status = "failed";
+            detail = error;
+        } else {
+            try {
+                status = writeIfChanged(s.session.toScratch(false), s.project.getOutput().toPath()) ? "ok"
+                        : "unchanged";
+            } catch (ScratchConversionException e) {
+                status = "failed";
+                detail = BatchCompiler.describe(e);
+            } catch (IOException e) {
+                status = "failed";
+                detail = detail + ": " + BatchCompiler.describe(e);
+            }
+        }
+
+        BatchCompiler.printRow(out, status, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                s.project.getName(), detail);
+    }
+
+    /**
+     * Writes the given project to the given file, unless the file already has
+     * the same contents. The file is replaced atomically where supported, so
+     * that readers never see partial output.
+     *
+     * @return Whether the file was written.
+     */
+    private static boolean writeIfChanged(ScratchProject project, Path output) throws IOException
+    {
+        Path dir = output.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, output.getFileName().toString(), ".tmp");
+        try {
+            new ScratchWriter(tmp.toFile()).write(project);
+
+            if (Files.isRegularFile(output) && Arrays.equals(Files.readAllBytes(tmp), Files.readAllBytes(output))) {
+                return false;
+            }
+
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * The in-memory state of a single project.
+     */
+    private static class ProjectState
+    {
+        private final BatchCompiler.Project project;
+        private final Path directory;
+        private final CompilationSession session;
+
+        // the current diagrams, in unit order
+        private List<Path> files;
+        // the parse result of every diagram: either a unit or an error message
+        private final Map<Path, ProgramUnit> units = new HashMap<>();
+        private final Map<Path, String> errors = new HashMap<>();
+
+        private ProjectState(BatchCompiler.Project project, CompilationSession session)
+        {
+            this.project = project;
+            this.directory = project.getDirectory() == null ? null
+                    : project.getDirectory().toAbsolutePath().normalize();
+            this.session = session;
+            this.files = project.getDiagrams().stream().map(f -> f.toPath().toAbsolutePath().normalize())
+                    .collect(Collectors.toList());
+        }
+
+        private Path getWatchedDirectory()
+        {
+            return directory != null ? directory : files.get(0).getParent();
+        }
+
+        private boolean isAffectedBy(Set<Path> changed)
+        {
+            for (Path file : changed) {
+                if (directory != null ? directory.equals(file.getParent()) : files.contains(file)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return The session index for the unit of the given diagram, i.e. the
+         *         number of units of the diagrams before it.
+         */
+        private int indexOf(Path file)
+        {
+            int index = 0;
+            for (Path f : files) {
+                if (f.equals(file)) {
+                    break;
+                }
+                if (units.containsKey(f)) {
+                    ++index;
+                }
+            }
+            return index;
+        }
+
+        private String getFirstError()
+        {
+            for (Path f : files) {
+                if (errors.containsKey(f)) {
+                    return errors.get(f);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -5,16 +5,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
-import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
 import nsdlib.elements.NSDElement;
 import nsdlib.elements.NSDRoot;
 import nsdlib.reader.NSDReaderException;
-import nsdlib.reader.StructorizerReader;
 import scratchlib.project.ScratchProject;
 import scratchlib.writer.ScratchWriter;
 import structogram2byob.blocks.BlockRegistry;
@@ -24,7 +25,9 @@ import structogram2byob.gui.frame.IFrameManager;
 import structogram2byob.gui.menu.IMenuBuilder;
 import structogram2byob.parser.nsd.NSDParser;
 import structogram2byob.parser.nsd.NSDParserException;
-import structogram2byob.program.Program;
+import structogram2byob.parser.nsd.StructorizerStreamReader;
+import structogram2byob.program.CompilationSession;
+import structogram2byob.program.ProgramUnit;
 import structogram2byob.program.ScratchConversionException;
 
 
@@ -33,17 +36,25 @@ import structogram2byob.program.ScratchConversionException;
  */
 public class GuiController
 {
-    private static final StructorizerReader reader = new StructorizerReader();
+    private final StructorizerStreamReader reader = new StructorizerStreamReader();
 
-    private final BlockRegistry blocks;
+    private BlockRegistry blocks;
 
     private final IDialogFactory dialogFactory;
-    private final IDialog<File> importChooser, exportChooser, saveImageChooser;
+    private final IDialog<List<File>> importChooser;
+    private final IDialog<File> exportChooser, saveImageChooser;
 
     private final IFrameManager frameManager;
 
     private final List<NSDRoot> diagrams = new ArrayList<>();
-    private ScratchProject project;
+    private final List<NSDRoot> pendingDiagrams = new ArrayList<>();
+
+    // parse results, by diagram index (null where parsing failed or succeeded, respectively)
+    private final List<ProgramUnit> units = new ArrayList<>();
+    private final List<NSDParserException> parserErrors = new ArrayList<>();
+
+    private CompilationSession session;
+    private boolean valid;
 
     /**
      * @param blocks The block registry used by this instance.
@@ -52,11 +63,23 @@ public class GuiController
      */
     public GuiController(BlockRegistry blocks, IDialogFactory dialogFactory, IFrameManager frameManager)
     {
-        this.blocks = blocks;
+        this(dialogFactory, frameManager);
+        setBlockRegistry(blocks);
+    }
 
+    /**
+     * Constructs a controller whose block registry is still being loaded.
+     * Diagrams added before {@link #setBlockRegistry(BlockRegistry)} is called
+     * are queued, and only shown and compiled once the registry is available.
+     *
+     * @param dialogFactory The factory to be used for constructing dialogs.
+     * @param frameManager The frame manager to be used.
+     */
+    public GuiController(IDialogFactory dialogFactory, IFrameManager frameManager)
+    {
         this.dialogFactory = dialogFactory;
 
-        importChooser = dialogFactory.createOpenDialog(new ExtensionFileFilter("Structorizer Files", "nsd"));
+        importChooser = dialogFactory.createMultiOpenDialog(new ExtensionFileFilter("Structorizer Files", "nsd"));
         exportChooser = dialogFactory.createSaveDialog(new ExtensionFileFilter("BYOB Project Files", "ypr"));
         saveImageChooser = dialogFactory.createSaveDialog(new ExtensionFileFilter("PNG Images", "png"));
 
@@ -69,10 +92,47 @@ public class GuiController
         menu.addControl("Export as BYOB Project", this::openExportDialog);
         menu.addFiller();
         menu.addControl("About", this::openAboutDialog);
+    }
+
+    /**
+     * Sets the block registry used by this instance, adds all diagrams queued
+     * while it was missing, and compiles the project.
+     *
+     * @param blocks The block registry.
+     */
+    public void setBlockRegistry(BlockRegistry blocks)
+    {
+        this.blocks = blocks;
+
+        int parsed = diagrams.size();
+        for (NSDRoot nsd : pendingDiagrams) {
+            diagrams.add(nsd);
+            frameManager.getUnits().addUnit(this, nsd);
+        }
+        pendingDiagrams.clear();
+
+        parseDiagrams(parsed);
+
+        // units do not depend on the registry, but have to be linked against the new one
+        session = new CompilationSession(blocks);
+        for (ProgramUnit unit : units) {
+            if (unit != null) {
+                session.add(unit);
+            }
+        }
 
         updateProject();
     }
 
+    /**
+     * @return Whether the block registry is available, i.e. diagrams are no
+     *         longer queued.
+     */
+    public boolean isReady()
+    {
+        return blocks != null;
+    }
+
     /**
      * Displays the frame.
      */
@@ -103,62 +163,125 @@ public class GuiController
     }
 
     /**
-     * Tries parsing the current project, initiating appropriate actions in the
-     * case of errors.
+     * Validates the current project, marking the elements of all errors found.
+     * Diagrams are parsed and units are linked as they are added (see
+     * {@link CompilationSession}), so this only reports the current state. No
+     * Scratch objects are created; the project is only converted when it is
+     * exported.
      */
     private void updateProject()
     {
-        this.project = null;
+        this.valid = false;
+        if (blocks == null) {
+            return;
+        }
+
         frameManager.getUnits().clearErrorMarks();
 
-        Program prog = createProgram(err -> {
-            NSDElement el = err.getElement();
-            if (el != null) {
-                frameManager.getUnits().markError(el);
+        boolean failed = false;
+        for (NSDParserException err : parserErrors) {
+            if (err != null) {
+                NSDElement el = err.getElement();
+                if (el != null) {
+                    frameManager.getUnits().markError(el);
+                }
+                failed = true;
             }
-        });
+        }
 
-        if (prog == null) {
+        if (failed) {
             return;
         }
 
-        try {
-            this.project = prog.toScratch(blocks);
-        } catch (ScratchConversionException e) {
-            NSDElement el = e.getElement();
-            if (el != null) {
-                frameManager.getUnits().markError(el);
+        List<ScratchConversionException> errors = session.getErrors();
+        for (ScratchConversionException e : errors) {
+            markConversionError(e);
+        }
+        this.valid = errors.isEmpty();
+    }
+
+    private void markConversionErrors(ScratchConversionException e)
+    {
+        markConversionError(e);
+        for (Throwable suppressed : e.getSuppressed()) {
+            if (suppressed instanceof ScratchConversionException) {
+                markConversionError((ScratchConversionException) suppressed);
             }
         }
     }
 
-    private Program createProgram(Consumer<NSDParserException> errorHandler)
+    private void markConversionError(ScratchConversionException e)
     {
-        Program prog = new Program();
-        boolean failed = false;
+        NSDElement el = e.getElement();
+        if (el != null) {
+            frameManager.getUnits().markError(el);
+        }
+    }
 
-        for (NSDRoot nsd : diagrams) {
-            NSDParser parser = new NSDParser(nsd);
+    /**
+     * Parses all diagrams starting at the given index, and stores the results.
+     * The diagrams are parsed in parallel on the common fork-join pool, but
+     * results are stored in diagram order.
+     *
+     * @param from The index of the first diagram to parse.
+     */
+    private void parseDiagrams(int from)
+    {
+        int count = diagrams.size() - from;
+        ProgramUnit[] parsed = new ProgramUnit[count];
+        NSDParserException[] errors = new NSDParserException[count];
+
+        IntStream.range(0, count).parallel().forEach(i -> {
             try {
-                prog.addUnit(parser.parse());
+                parsed[i] = new NSDParser(diagrams.get(from + i)).parse();
             } catch (NSDParserException err) {
-                errorHandler.accept(err);
-                failed = true;
+                errors[i] = err;
             }
-        }
+        });
 
-        return failed ? null : prog;
+        for (int i = 0; i < count; ++i) {
+            units.add(parsed[i]);
+            parserErrors.add(errors[i]);
+        }
     }
 
     /**
-     * Adds the given diagram to the GUI.
+     * Adds the given diagram to the GUI. If the block registry is not available
+     * yet, the diagram is queued until it is.
      *
      * @param nsd The diagram to add.
      */
     public void add(NSDRoot nsd)
     {
-        diagrams.add(nsd);
-        frameManager.getUnits().addUnit(this, nsd);
+        addAll(Collections.singletonList(nsd));
+    }
+
+    /**
+     * Adds all of the given diagrams to the GUI. They are parsed as one batch,
+     * and the project is compiled only once. If the block registry is not
+     * available yet, the diagrams are queued until it is.
+     *
+     * @param nsds The diagrams to add.
+     */
+    public void addAll(Collection<NSDRoot> nsds)
+    {
+        if (blocks == null) {
+            pendingDiagrams.addAll(nsds);
+            return;
+        }
+
+        int from = diagrams.size();
+        for (NSDRoot nsd : nsds) {
+            diagrams.add(nsd);
+            frameManager.getUnits().addUnit(this, nsd);
+        }
+
+        parseDiagrams(from);
+        for (ProgramUnit unit : units.subList(from, units.size())) {
+            if (unit != null) {
+                session.add(unit);
+            }
+        }
 
         updateProject();
     }
@@ -177,6 +300,12 @@ public class GuiController
             diagrams.remove(index);
             frameManager.getUnits().removeUnit(index);
 
+            ProgramUnit unit = units.remove(index);
+            parserErrors.remove(index);
+            if (unit != null) {
+                session.remove(unit);
+            }
+
             updateProject();
         }
     }
@@ -191,37 +320,52 @@ public class GuiController
             diagrams.clear();
             frameManager.getUnits().removeAllUnits();
 
+            units.clear();
+            parserErrors.clear();
+            if (blocks != null) {
+                session = new CompilationSession(blocks);
+            }
+
             updateProject();
         }
     }
 
     /**
-     * Shows a diagram import dialog to the user.
+     * Shows a diagram import dialog to the user. All diagrams that could be
+     * read are added as one batch.
      */
     public void openImportDialog()
     {
-        File file = importChooser.show();
-        if (file == null) {
+        List<File> files = importChooser.show();
+        if (files == null) {
             return;
         }
 
-        try (FileInputStream in = new FileInputStream(file)) {
-            add(reader.read(in));
-        } catch (IOException e) {
-            e.printStackTrace();
-            showErrorMessage("File could not be read");
-        } catch (NSDReaderException e) {
-            e.printStackTrace();
-            showErrorMessage("Structogram could not be understood");
+        List<NSDRoot> read = new ArrayList<>();
+        for (File file : files) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                read.add(reader.read(in));
+            } catch (IOException e) {
+                e.printStackTrace();
+                showErrorMessage("File could not be read: " + file.getName());
+            } catch (NSDReaderException e) {
+                e.printStackTrace();
+                showErrorMessage("Structogram could not be understood: " + file.getName());
+            }
+        }
+
+        if (!read.isEmpty()) {
+            addAll(read);
         }
     }
 
     /**
-     * Shows a BYOB project export dialog to the user.
+     * Shows a BYOB project export dialog to the user. The project is converted
+     * only once a file has been chosen.
      */
     public void openExportDialog()
     {
-        if (project == null) {
+        if (!valid) {
             return;
         }
 
@@ -234,6 +378,15 @@ public class GuiController
             file = new File(file.getParentFile(), file.getName() + ".ypr");
         }
 
+        ScratchProject project;
+        try {
+            project = session.toScratch(true);
+        } catch (ScratchConversionException e) {
+            markConversionErrors(e);
+            showErrorMessage("Project could not be converted");
+            return;
+        }
+
         ScratchWriter w = new ScratchWriter(file);
         try {
             w.write(project);
@@ -1,6 +1,7 @@
 package structogram2byob.gui.dialogs;
 
 import java.io.File;
+import java.util.List;
 
 import javax.swing.filechooser.FileFilter;
 
@@ -26,6 +27,14 @@ public interface IDialogFactory
      */
     IDialog<File> createOpenDialog(FileFilter type);
 
+    /**
+     * Creates a new dialog for selecting one or more files to open.
+     *
+     * @param type Filter for valid file selections.
+     * @return A new dialog.
+     */
+    IDialog<List<File>> createMultiOpenDialog(FileFilter type);
+
     /**
      * Creates a new dialog for requesting user confirmation using the given
      * message.
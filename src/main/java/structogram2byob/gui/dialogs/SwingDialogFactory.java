@@ -1,6 +1,8 @@
 package structogram2byob.gui.dialogs;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -44,6 +46,23 @@ public class SwingDialogFactory implements IDialogFactory
         };
     }
 
+    @Override
+    public IDialog<List<File>> createMultiOpenDialog(FileFilter type)
+    {
+        JFileChooser chooser = new JFileChooser();
+
+        chooser.setFileFilter(type);
+        chooser.setAcceptAllFileFilterUsed(true);
+        chooser.setMultiSelectionEnabled(true);
+
+        return () -> {
+            if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+                return Arrays.asList(chooser.getSelectedFiles());
+            }
+            return null;
+        };
+    }
+
     @Override
     public IDialog<Boolean> createConfirmationDialog(String message)
     {
@@ -1,28 +1,34 @@
 package structogram2byob.lexer;
 
-import java.util.regex.Pattern;
-
-
 /**
  * Performs lexical analysis on a given input, separating that input into
  * parseable tokens.
+ *
+ * <p>
+ * The input is scanned in place: tokens refer to regions of it, and strings are
+ * only created when a token's value is requested. Line breaks ({@code "\r\n"},
+ * {@code "\r"} or {@code "\n"}) are handled while scanning, and line and column
+ * numbers are reported as if all of them were {@code "\n"}.
  */
 public class Lexer
 {
-    private static final Pattern NEWLINE = Pattern.compile("\r\n|\r|\n");
-    private static final Pattern PATTERN_NUMBER = Pattern.compile("^[+-]?\\d+(?:\\.\\d+)?$");
-
-    private final String input;
+    private final CharSequence input;
     private int index = 0;
     private int pastLines;
     private int lineStart;
 
+    /**
+     * The number of carriage returns skipped in {@code "\r\n"} pairs so far,
+     * i.e. the difference between the input index and the normalized index.
+     */
+    private int skipped;
+
     /**
      * Constructs a new Lexer from the given input.
      *
      * @param input The input string.
      */
-    public Lexer(String input)
+    public Lexer(CharSequence input)
     {
         this(input, 0, 0);
     }
@@ -34,9 +40,9 @@ public class Lexer
      * @param pastLines The number of lines to offset tokens by.
      * @param lineStart The number of characters to offset tokens by.
      */
-    public Lexer(String input, int pastLines, int lineStart)
+    public Lexer(CharSequence input, int pastLines, int lineStart)
     {
-        this.input = NEWLINE.matcher(input).replaceAll("\n");
+        this.input = input;
 
         this.pastLines = pastLines;
         this.lineStart = lineStart;
@@ -69,7 +75,10 @@ public class Lexer
             throw new LexerException("string not tokenizable");
         }
 
-        index += t.getValue().length();
+        if (t.getType() == TokenType.STRING) {
+            skipped += countSkippedInRegion(index, index + t.getLength());
+        }
+        index += t.getLength();
 
         return t;
     }
@@ -85,9 +94,9 @@ public class Lexer
         char c = input.charAt(index);
 
         if (c == '(') {
-            return peekParenOpen();
+            return token(TokenType.PAREN_OPEN, 1);
         } else if (c == ')') {
-            return peekParenClose();
+            return token(TokenType.PAREN_CLOSE, 1);
         } else if (c == '"') {
             return peekString();
         } else if (('0' <= c && '9' >= c) || c == '-' || c == '+') {
@@ -98,71 +107,114 @@ public class Lexer
         return peekLabel();
     }
 
-    private Token peekParenOpen()
+    private Token token(TokenType type, int length)
     {
-        char c = input.charAt(index);
-        return new Token(TokenType.PAREN_OPEN, Character.toString(c), pastLines, index - lineStart);
-    }
-
-    private Token peekParenClose()
-    {
-        char c = input.charAt(index);
-        return new Token(TokenType.PAREN_CLOSE, Character.toString(c), pastLines, index - lineStart);
+        return new Token(type, input, index, length, pastLines, index - skipped - lineStart);
     }
 
     private Token peekString() throws LexerException
     {
         // find string end index
-        int end = input.indexOf('"', index + 1);
-        if (end == -1) {
+        int end = index + 1;
+        while (end < input.length() && input.charAt(end) != '"') {
+            ++end;
+        }
+        if (end >= input.length()) {
             throw new LexerException("string is unending");
         }
-        String s = input.substring(index, end + 1);
 
-        return new Token(TokenType.STRING, s, pastLines, index - lineStart);
+        return token(TokenType.STRING, end + 1 - index);
     }
 
     private Token peekNumber() throws LexerException
     {
-        // collect all characters potentially part of the number
-        StringBuilder sb = new StringBuilder();
-        for (int i = index; i < input.length(); ++i) {
-            char c = input.charAt(i);
-            if (i != index && (c < '0' || c > '9') && c != '.') {
+        // find all characters potentially part of the number
+        int end = index + 1;
+        while (end < input.length()) {
+            char c = input.charAt(end);
+            if ((c < '0' || c > '9') && c != '.') {
                 break;
             }
-            sb.append(c);
+            ++end;
         }
 
-        String s = sb.toString();
-
         // sign only is a label
-        if (s.equals("-") || s.equals("+")) {
-            return new Token(TokenType.LABEL, s, pastLines, index - lineStart);
+        if (end == index + 1 && !isDigit(input.charAt(index))) {
+            return token(TokenType.LABEL, 1);
         }
 
-        // validate string to be numeric
-        if (!PATTERN_NUMBER.matcher(s).matches()) {
-            throw new LexerException("illegal number format for " + s);
+        // validate characters to be numeric
+        if (!isNumber(index, end)) {
+            throw new LexerException("illegal number format for " + input.subSequence(index, end));
         }
 
-        return new Token(TokenType.NUMBER, s, pastLines, index - lineStart);
+        return token(TokenType.NUMBER, end - index);
     }
 
-    private Token peekLabel() throws LexerException
+    /**
+     * Checks whether the given region is an optionally signed integer or
+     * decimal number.
+     */
+    private boolean isNumber(int start, int end)
     {
-        // collect all characters until next token start or whitespace
-        StringBuilder sb = new StringBuilder();
-        for (int i = index; i < input.length(); ++i) {
-            char c = input.charAt(i);
+        int i = start;
+        if (input.charAt(i) == '-' || input.charAt(i) == '+') {
+            ++i;
+        }
+
+        int digits = i;
+        while (i < end && isDigit(input.charAt(i))) {
+            ++i;
+        }
+        if (i == digits) {
+            return false;
+        }
+        if (i == end) {
+            return true;
+        }
+
+        // decimal point must be followed by at least one digit
+        int decimals = ++i;
+        while (i < end && isDigit(input.charAt(i))) {
+            ++i;
+        }
+
+        return i == end && i > decimals;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private Token peekLabel()
+    {
+        // find all characters until next token start or whitespace
+        int end = index;
+        while (end < input.length()) {
+            char c = input.charAt(end);
             if (c == '(' || c == ')' || c == '"' || Character.isWhitespace(c)) {
                 break;
             }
-            sb.append(c);
+            ++end;
         }
-        String s = sb.toString();
 
-        return new Token(TokenType.LABEL, s, pastLines, index - lineStart);
+        return token(TokenType.LABEL, end - index);
+    }
+
+    /**
+     * Counts the carriage returns in the given region that are immediately
+     * followed by a line feed.
+     */
+    private int countSkippedInRegion(int start, int end)
+    {
+        int count = 0;
+        for (int i = start; i < end - 1; ++i) {
+            if (input.charAt(i) == '\r' && input.charAt(i + 1) == '\n') {
+                ++count;
+            }
+        }
+        return count;
     }
 
     /**
@@ -177,9 +229,12 @@ public class Lexer
 
         char c;
         while (Character.isWhitespace(c = input.charAt(index))) {
-            if (c == '\n') {
+            if (c == '\r' && index + 1 < input.length() && input.charAt(index + 1) == '\n') {
+                // treat as a single line feed
+                ++skipped;
+            } else if (c == '\n' || c == '\r') {
                 pastLines++;
-                lineStart = index + 1;
+                lineStart = index + 1 - skipped;
             }
             index++;
             if (index >= input.length()) {
@@ -0,0 +1,139 @@
+package structogram2byob.lexer;
+
+/**
+ * Table of canonical strings that can be queried with a region of a
+ * {@link CharSequence}, so that a string is only allocated the first time its
+ * characters are seen.
+ *
+ * <p>
+ * All strings in the table are also interned with {@link String#intern()},
+ * meaning they are identical to equal labels used elsewhere, e.g. in block
+ * descriptions. Lookups of known symbols do not lock; only insertions are
+ * synchronized. Once the table reaches its size limit, unknown symbols are
+ * returned as fresh strings without being added.
+ */
+public class SymbolTable
+{
+    /**
+     * The table shared by all lexers.
+     */
+    public static final SymbolTable instance = new SymbolTable(1 << 16);
+
+    private final int maxSize;
+
+    private volatile String[] table = new String[1024];
+    private int size;
+
+    /**
+     * @param maxSize The maximum number of symbols to store.
+     */
+    public SymbolTable(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the canonical string consisting of the given characters.
+     *
+     * @param s The sequence containing the characters.
+     * @param start The index of the first character (inclusive).
+     * @param end The index after the last character (exclusive).
+     * @return The canonical string for the given region.
+     */
+    public String intern(CharSequence s, int start, int end)
+    {
+        int hash = hash(s, start, end);
+
+        String found = find(table, hash, s, start, end);
+        if (found != null) {
+            return found;
+        }
+
+        return insert(hash, s, start, end);
+    }
+
+    private synchronized String insert(int hash, CharSequence s, int start, int end)
+    {
+        String found = find(table, hash, s, start, end);
+        if (found != null) {
+            return found;
+        }
+
+        String symbol = s.subSequence(start, end).toString().intern();
+        if (size >= maxSize) {
+            return symbol;
+        }
+
+        String[] t = table;
+        if ((size + 1) * 2 > t.length) {
+            t = rehash(t);
+        }
+
+        t[slot(t, hash, s, start, end)] = symbol;
+        ++size;
+
+        // publish after the write, so that lock-free readers can see it
+        table = t;
+
+        return symbol;
+    }
+
+    private static String[] rehash(String[] old)
+    {
+        String[] t = new String[old.length * 2];
+        for (String symbol : old) {
+            if (symbol != null) {
+                t[slot(t, symbol.hashCode(), symbol, 0, symbol.length())] = symbol;
+            }
+        }
+        return t;
+    }
+
+    private static String find(String[] t, int hash, CharSequence s, int start, int end)
+    {
+        String symbol = t[slot(t, hash, s, start, end)];
+        return symbol != null && matches(symbol, s, start, end) ? symbol : null;
+    }
+
+    /**
+     * Finds the slot holding the given characters, or the empty slot where they
+     * would be inserted.
+     */
+    private static int slot(String[] t, int hash, CharSequence s, int start, int end)
+    {
+        int mask = t.length - 1;
+        int i = (hash ^ (hash >>> 16)) & mask;
+
+        String symbol;
+        while ((symbol = t[i]) != null && !matches(symbol, s, start, end)) {
+            i = (i + 1) & mask;
+        }
+
+        return i;
+    }
+
+    private static boolean matches(String symbol, CharSequence s, int start, int end)
+    {
+        if (symbol.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; ++i) {
+            if (symbol.charAt(i - start) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the same hash as {@link String#hashCode()} for the given region.
+     */
+    private static int hash(CharSequence s, int start, int end)
+    {
+        int h = 0;
+        for (int i = start; i < end; ++i) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+}
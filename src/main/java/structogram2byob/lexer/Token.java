@@ -2,13 +2,22 @@ package structogram2byob.lexer;
 
 /**
  * Smallest lexical unit.
+ *
+ * <p>
+ * Tokens created by the {@link Lexer} refer to a region of the lexer input,
+ * and only materialize their value as a string when it is first requested.
+ * Values of all tokens except strings are canonicalized through the shared
+ * {@link SymbolTable}.
  */
 public class Token
 {
     private final TokenType type;
-    private final String value;
+    private final CharSequence source;
+    private final int offset, length;
     private final int line, column;
 
+    private String value;
+
     /**
      * Constructs a new token instance for the given type and value.
      *
@@ -19,8 +28,27 @@ public class Token
      */
     public Token(TokenType type, String value, int line, int column)
     {
-        this.type = type;
+        this(type, value, 0, value.length(), line, column);
         this.value = value;
+    }
+
+    /**
+     * Constructs a new token instance for the given type, whose value is the
+     * given region of the source.
+     *
+     * @param type The token type.
+     * @param source The character sequence containing the lexeme.
+     * @param offset The index of the lexeme's first character in the source.
+     * @param length The number of characters in the lexeme.
+     * @param line The 0-based index of the line this token was on.
+     * @param column The 0-based index of the first character.
+     */
+    Token(TokenType type, CharSequence source, int offset, int length, int line, int column)
+    {
+        this.type = type;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
 
         this.line = line;
         this.column = column;
@@ -39,7 +67,31 @@ public class Token
      */
     public String getValue()
     {
-        return value;
+        String v = value;
+        if (v == null) {
+            v = materialize();
+            value = v;
+        }
+        return v;
+    }
+
+    private String materialize()
+    {
+        if (type != TokenType.STRING) {
+            return SymbolTable.instance.intern(source, offset, offset + length);
+        }
+
+        String s = source.subSequence(offset, offset + length).toString();
+        // line breaks are reported as in the normalized input
+        return s.indexOf('\r') < 0 ? s : s.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    /**
+     * @return The number of characters the lexeme occupies in the source.
+     */
+    public int getLength()
+    {
+        return length;
     }
 
     /**
@@ -61,6 +113,6 @@ public class Token
     @Override
     public String toString()
     {
-        return type.name() + ":'" + value + "'";
+        return type.name() + ":'" + getValue() + "'";
     }
 }
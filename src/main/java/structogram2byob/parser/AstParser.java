@@ -1,5 +1,8 @@
 package structogram2byob.parser;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 import structogram2byob.lexer.Lexer;
 import structogram2byob.lexer.LexerException;
 import structogram2byob.lexer.Token;
@@ -79,31 +82,48 @@ public class AstParser
         return ast;
     }
 
-    // corresponds to production E -> F+
+    /**
+     * Parses a sequence of parts into the given node, including all nested
+     * sequences. Instead of recursing into parentheses, the enclosing nodes
+     * are kept on an explicit stack, so the nesting depth is only limited by
+     * the heap.
+     *
+     * @param ast The node to add the parts to.
+     *
+     * @throws AstParserException If a syntax error is encountered.
+     */
+    // corresponds to productions E -> F+ and F -> "(" E ")" | G
     private void parseExpression(AstNode ast) throws AstParserException
     {
-        do {
-            parseOptionallyWrapped(ast);
-        } while (current != null && current.getType() != TokenType.PAREN_CLOSE);
-    }
-
-    // corresponds to production F -> "(" E ")" | G
-    private void parseOptionallyWrapped(AstNode ast) throws AstParserException
-    {
-        if (current == null) {
-            throw new AstParserException("expected a token but got nothing");
-        }
-
-        if (current.getType() == TokenType.PAREN_OPEN) {
-            match(TokenType.PAREN_OPEN);
-
-            AstNode wrapped = new AstNode();
-            parseExpression(wrapped);
-            ast.add(wrapped);
-
-            match(TokenType.PAREN_CLOSE);
-        } else {
-            parseTerminal(ast);
+        Deque<AstNode> enclosing = new ArrayDeque<>();
+        AstNode node = ast;
+
+        while (true) {
+            if (current == null) {
+                throw new AstParserException("expected a token but got nothing");
+            }
+
+            if (current.getType() == TokenType.PAREN_OPEN) {
+                match(TokenType.PAREN_OPEN);
+                enclosing.push(node);
+                node = new AstNode();
+                continue;
+            }
+
+            parseTerminal(node);
+
+            // close all nodes that end after the terminal
+            while (current == null || current.getType() == TokenType.PAREN_CLOSE) {
+                if (enclosing.isEmpty()) {
+                    return;
+                }
+
+                match(TokenType.PAREN_CLOSE);
+
+                AstNode wrapped = node;
+                node = enclosing.pop();
+                node.add(wrapped);
+            }
         }
     }
 
@@ -0,0 +1,183 @@
+package structogram2byob.parser.expression;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nsdlib.elements.NSDElement;
+import structogram2byob.program.expressions.BlockExpression;
+import structogram2byob.program.expressions.Expression;
+import structogram2byob.program.expressions.NumberExpression;
+import structogram2byob.program.expressions.StringExpression;
+
+
+/**
+ * Bounded cache of parsed expressions, keyed by their input string, so that
+ * labels occurring many times (such as {@code change (i) by (1)}) are only
+ * lexed and parsed once.
+ *
+ * <p>
+ * The cache stores the shape of each expression without an element. On every
+ * request, a fresh copy of the shape is created that stems from the requested
+ * element, so results never share state with each other. Inputs that fail to
+ * parse are not cached, meaning they are parsed again and fail with exactly
+ * the same exception as {@link ExpressionParser} would throw. Inputs longer
+ * than {@link #MAX_INPUT_LENGTH} are always parsed directly.
+ *
+ * <p>
+ * When the capacity is exceeded, the least recently used entry is evicted.
+ * This class is thread-safe.
+ */
+public class ExpressionCache
+{
+    /**
+     * The cache shared by all diagram parsers.
+     */
+    public static final ExpressionCache instance = new ExpressionCache(4096);
+
+    /**
+     * The maximum length of inputs that are cached.
+     */
+    public static final int MAX_INPUT_LENGTH = 256;
+
+    private final int capacity;
+    private final Map<String, Expression> shapes;
+
+    private long hits, misses, evictions;
+
+    /**
+     * @param capacity The maximum number of expressions to keep; 0 disables caching.
+     */
+    public ExpressionCache(int capacity)
+    {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative cache capacity");
+        }
+
+        this.capacity = capacity;
+        this.shapes = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+            private static final long serialVersionUID = -3160530472624893541L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest)
+            {
+                if (size() > ExpressionCache.this.capacity) {
+                    ++evictions;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Parses the given input as an {@link Expression} stemming from the given
+     * element, reusing a previous result for the same input if available.
+     *
+     * @param element The element the expression stems from.
+     * @param input The input string.
+     * @return The parsed expression.
+     *
+     * @throws ExpressionParserException If the input is malformed and cannot be parsed as an expression.
+     */
+    public Expression parse(NSDElement element, String input) throws ExpressionParserException
+    {
+        if (capacity == 0 || input.length() > MAX_INPUT_LENGTH) {
+            return new ExpressionParser(element, input).parse();
+        }
+
+        Expression shape;
+        synchronized (this) {
+            shape = shapes.get(input);
+            if (shape != null) {
+                ++hits;
+            } else {
+                ++misses;
+            }
+        }
+
+        if (shape == null) {
+            shape = new ExpressionParser(null, input).parse();
+            synchronized (this) {
+                shapes.put(input, shape);
+            }
+        }
+
+        return bind(shape, element);
+    }
+
+    /**
+     * Copies the given expression so that it and all of its parameters stem
+     * from the given element. Recursion depth is bounded by the input length.
+     *
+     * @param shape The expression to copy.
+     * @param element The element for the copy.
+     * @return The copy.
+     */
+    private static Expression bind(Expression shape, NSDElement element)
+    {
+        if (shape instanceof NumberExpression) {
+            return new NumberExpression(element, ((NumberExpression) shape).getValue());
+        } else if (shape instanceof StringExpression) {
+            return new StringExpression(element, ((StringExpression) shape).getValue());
+        }
+
+        BlockExpression block = (BlockExpression) shape;
+
+        List<Expression> params = new ArrayList<>(block.getParameters().size());
+        for (Expression param : block.getParameters()) {
+            params.add(bind(param, element));
+        }
+
+        return new BlockExpression(element, block.getDescription(), params);
+    }
+
+    /**
+     * Removes all entries. The statistics are kept.
+     */
+    public synchronized void clear()
+    {
+        shapes.clear();
+    }
+
+    /**
+     * @return The maximum number of expressions kept.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return The number of expressions currently cached.
+     */
+    public synchronized int size()
+    {
+        return shapes.size();
+    }
+
+    /**
+     * @return The number of requests answered from the cache.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return The number of requests for inputs that were not cached.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return The number of entries evicted to stay within the capacity.
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+}
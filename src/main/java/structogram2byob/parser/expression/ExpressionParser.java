@@ -1,16 +1,17 @@
 package structogram2byob.parser.expression;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import nsdlib.elements.NSDElement;
 import structogram2byob.blocks.BlockDescription;
+import structogram2byob.lexer.Lexer;
+import structogram2byob.lexer.LexerException;
 import structogram2byob.lexer.Token;
 import structogram2byob.lexer.TokenType;
-import structogram2byob.parser.AstNode;
 import structogram2byob.parser.AstParser;
 import structogram2byob.parser.AstParserException;
 import structogram2byob.program.expressions.BlockExpression;
@@ -20,13 +21,19 @@ import structogram2byob.program.expressions.StringExpression;
 
 
 /**
- * Parser for constructing an {@link Expression} from a given input string by
- * first building the AST ({@link AstParser}) and then traversing it.
+ * Parser for constructing an {@link Expression} from a given input string.
+ *
+ * <p>
+ * This parser accepts the same grammar as {@link AstParser}, but it builds the
+ * expressions directly while reading the tokens, without an intermediate
+ * syntax tree. Syntax errors are reported with
+ * the same messages as the AST parser would.
  */
 public class ExpressionParser
 {
     private final NSDElement element;
-    private final AstParser astParser;
+    private final Lexer lexer;
+    private Token current;
 
     /**
      * Constructs an expression parser on the given input.
@@ -37,7 +44,7 @@ public class ExpressionParser
     public ExpressionParser(NSDElement element, String input)
     {
         this.element = element;
-        this.astParser = new AstParser(input);
+        this.lexer = new Lexer(input);
     }
 
     /**
@@ -47,96 +54,127 @@ public class ExpressionParser
      *
      * @throws ExpressionParserException If the input is malformed and cannot be parsed as an expression.
      */
+    // corresponds to production S -> E
     public Expression parse() throws ExpressionParserException
     {
-        AstNode ast;
+        if (!lexer.hasNext()) {
+            throw new ExpressionParserException("expression is empty");
+        }
+
+        Expression exp;
         try {
-            ast = astParser.parse();
-        } catch (AstParserException e) {
-            throw new ExpressionParserException(e);
+            current = lexer.next();
+            exp = parseExpression();
+        } catch (LexerException e) {
+            throw new ExpressionParserException(new AstParserException(e));
+        }
+
+        if (current != null || lexer.hasNext()) {
+            throw syntaxError("parse incomplete");
         }
-        return parse(ast);
+
+        return exp;
     }
 
     /**
-     * Parses the given AST as an expression. Nested expressions are de-nested
-     * before they are parsed.
+     * Checks whether there is a current token, and whether that token is of the
+     * given type. If so, consumes the token (advancing the pointer), otherwise
+     * throws an exception.
      *
-     * @param ast The AST node to parse.
-     * @return The parsed expression.
+     * @param type The token type required for a match.
+     * @return The matched token.
      *
-     * @throws ExpressionParserException If the node is empty, an unexpected token is encountered,
-     *          or a token is malformed.
+     * @throws ExpressionParserException If there are no more tokens or the token is not of the given type.
      */
-    private Expression parse(AstNode ast) throws ExpressionParserException
+    private Token match(TokenType type) throws ExpressionParserException
     {
-        if (ast.hasValue()) {
-            return parseSingle(ast);
+        if (current == null || current.getType() != type) {
+            throw syntaxError("unexpected token");
         }
 
-        if (ast.countBranches() == 0) {
-            throw new ExpressionParserException("expression is empty");
-        } else if (ast.countBranches() == 1) {
-            return parse(ast.getBranch(0));
+        Token t = current;
+
+        try {
+            current = lexer.hasNext() ? lexer.next() : null;
+        } catch (LexerException e) {
+            throw new ExpressionParserException(new AstParserException(e));
         }
 
-        return parseComplex(IntStream.range(0, ast.countBranches())
-                .mapToObj(ast::getBranch).collect(Collectors.toList()));
+        return t;
     }
 
     /**
-     * Parses the given AST as an expression by taking its direct value and
-     * converting it to the appropriate type.
+     * Parses a sequence of parts, including all nested sequences. Instead of
+     * recursing into parentheses, the enclosing sequences are kept on an
+     * explicit stack, so the nesting depth is only limited by the heap.
      *
-     * @param ast The AST node to parse.
      * @return The parsed expression.
      *
-     * @throws ExpressionParserException If the node contains something other than a label, number or string.
+     * @throws ExpressionParserException If a syntax error is encountered.
      */
-    private Expression parseSingle(AstNode ast) throws ExpressionParserException
+    // corresponds to productions E -> F+ and F -> "(" E ")" | G
+    private Expression parseExpression() throws ExpressionParserException
     {
-        Token t = ast.getValue();
+        Deque<Sequence> enclosing = new ArrayDeque<>();
+        Sequence sequence = new Sequence();
+
+        while (true) {
+            if (current == null) {
+                throw syntaxError("expected a token but got nothing");
+            }
+
+            if (current.getType() == TokenType.PAREN_OPEN) {
+                match(TokenType.PAREN_OPEN);
+                enclosing.push(sequence);
+                sequence = new Sequence();
+                continue;
+            }
+
+            Object part = parseTerminal();
+
+            // add the part, and close all sequences that end after it
+            while (true) {
+                sequence.add(part);
+                if (current != null && current.getType() != TokenType.PAREN_CLOSE) {
+                    break;
+                }
+
+                Expression exp = sequence.toExpression(element);
+                if (enclosing.isEmpty()) {
+                    return exp;
+                }
 
-        switch (t.getType()) {
+                match(TokenType.PAREN_CLOSE);
+                sequence = enclosing.pop();
+                part = exp;
+            }
+        }
+    }
+
+    // corresponds to production G -> label | number | string
+    private Object parseTerminal() throws ExpressionParserException
+    {
+        switch (current.getType()) {
             case LABEL:
-                return parseComplex(Collections.singletonList(ast));
+                return match(TokenType.LABEL).getValue();
             case NUMBER:
-                return parseNumber(t.getValue());
+                return parseNumber(match(TokenType.NUMBER).getValue());
             case STRING:
-                return parseString(t.getValue());
+                return parseString(match(TokenType.STRING).getValue());
             default:
                 break;
         }
 
-        throw new ExpressionParserException("unexpected token: " + t);
+        throw syntaxError("unexpected token");
     }
 
     /**
-     * Parses the given list of AST nodes as a complex (multi-part or block)
-     * expression.
-     *
-     * @param nodes The AST nodes to parse.
-     * @return The parsed expression.
-     *
-     * @throws ExpressionParserException If the node is empty, an unexpected token is encountered,
-     *          or a token is malformed.
+     * Creates an exception for a syntax error, wrapping an
+     * {@link AstParserException} as if the AST parser had reported the error.
      */
-    private Expression parseComplex(List<AstNode> nodes) throws ExpressionParserException
+    private static ExpressionParserException syntaxError(String message)
     {
-        BlockDescription.Builder builder = new BlockDescription.Builder();
-        List<Expression> params = new ArrayList<>();
-
-        for (AstNode ast : nodes) {
-            if (ast.hasValue() && ast.getValue().getType() == TokenType.LABEL) {
-                builder.label(ast.getValue().getValue());
-            } else {
-                Expression subExp = parse(ast);
-                builder.param(subExp.getType());
-                params.add(subExp);
-            }
-        }
-
-        return new BlockExpression(element, builder.build(), params);
+        return new ExpressionParserException(new AstParserException(message));
     }
 
     /**
@@ -177,4 +215,59 @@ public class ExpressionParser
         }
         return new StringExpression(element, value);
     }
+
+    /**
+     * The parts of a sequence (E) being parsed. A single part is turned into an
+     * expression as-is (a single label becoming a parameterless block);
+     * multiple parts form a block expression with the labels as its
+     * description and the other parts as its parameters.
+     */
+    private static class Sequence
+    {
+        private Object first;
+        private BlockDescription.Builder builder;
+        private List<Expression> params;
+
+        /**
+         * @param part The label string or expression to add.
+         */
+        private void add(Object part)
+        {
+            if (first == null) {
+                first = part;
+                return;
+            }
+
+            if (builder == null) {
+                builder = new BlockDescription.Builder();
+                params = new ArrayList<>();
+                addToBlock(first);
+            }
+            addToBlock(part);
+        }
+
+        private void addToBlock(Object part)
+        {
+            if (part instanceof String) {
+                builder.label((String) part);
+                return;
+            }
+
+            Expression exp = (Expression) part;
+            builder.param(exp.getType());
+            params.add(exp);
+        }
+
+        private Expression toExpression(NSDElement element)
+        {
+            if (builder != null) {
+                return new BlockExpression(element, builder.build(), params);
+            }
+            if (first instanceof String) {
+                return new BlockExpression(element, new BlockDescription.Builder().label((String) first).build(),
+                        Collections.emptyList());
+            }
+            return (Expression) first;
+        }
+    }
 }
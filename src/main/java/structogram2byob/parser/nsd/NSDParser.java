@@ -1,8 +1,11 @@
 package structogram2byob.parser.nsd;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 
 import nsdlib.elements.NSDContainer;
@@ -19,7 +22,7 @@ import structogram2byob.blocks.structures.IfBlock;
 import structogram2byob.blocks.structures.IfElseBlock;
 import structogram2byob.parser.blockdescription.BlockDescriptionParser;
 import structogram2byob.parser.blockdescription.BlockDescriptionParserException;
-import structogram2byob.parser.expression.ExpressionParser;
+import structogram2byob.parser.expression.ExpressionCache;
 import structogram2byob.parser.expression.ExpressionParserException;
 import structogram2byob.program.ProgramUnit;
 import structogram2byob.program.UnitType;
@@ -34,15 +37,30 @@ import structogram2byob.program.expressions.ScriptExpression;
 public class NSDParser
 {
     private final NSDRoot nsd;
+    private final ExpressionCache expressions;
 
     /**
-     * Constructs a new parser from the given root element.
+     * Constructs a new parser from the given root element. Expressions are
+     * parsed via the shared {@link ExpressionCache#instance}.
      *
      * @param nsd The element.
      */
     public NSDParser(NSDRoot nsd)
+    {
+        this(nsd, ExpressionCache.instance);
+    }
+
+    /**
+     * Constructs a new parser from the given root element, parsing expressions
+     * via the given cache.
+     *
+     * @param nsd The element.
+     * @param expressions The expression cache to use.
+     */
+    public NSDParser(NSDRoot nsd, ExpressionCache expressions)
     {
         this.nsd = nsd;
+        this.expressions = expressions;
     }
 
     /**
@@ -63,12 +81,7 @@ public class NSDParser
 
         BlockDescription desc = parseUnitDescription(label);
 
-        List<BlockExpression> blocks = new ArrayList<>();
-        for (NSDElement child : nsd) {
-            blocks.add(parseElement(child));
-        }
-
-        return new ProgramUnit(nsd, type, desc, blocks);
+        return new ProgramUnit(nsd, type, desc, parseBlocks(nsd));
     }
 
     /**
@@ -125,33 +138,63 @@ public class NSDParser
     private Expression parseExpression(NSDElement source, String exp) throws NSDParserException
     {
         try {
-            return new ExpressionParser(source, exp).parse();
+            return expressions.parse(source, exp);
         } catch (ExpressionParserException e) {
             throw new NSDParserException(source, "expression error", e);
         }
     }
 
     /**
-     * Parses the element according to its type.
+     * Parses all child elements of the given container, including all nested
+     * elements, and returns them as blocks.
      *
-     * @param e The element to parse.
-     * @return The parsed block expression.
+     * <p>
+     * Elements are parsed in document order. Instead of recursing into
+     * structures (decisions and loops), the scripts being parsed are kept on an
+     * explicit stack, so the nesting depth is only limited by the heap.
      *
-     * @throws NSDParserException
+     * @param container The container element.
+     * @return The parsed blocks.
+     *
+     * @throws NSDParserException If an element could not be parsed.
      */
-    private BlockExpression parseElement(NSDElement e) throws NSDParserException
+    private List<BlockExpression> parseBlocks(NSDContainer<NSDElement> container) throws NSDParserException
     {
-        if (e instanceof NSDInstruction) {
-            return parseInstruction((NSDInstruction) e);
-        } else if (e instanceof NSDDecision) {
-            return parseDecision((NSDDecision) e);
-        } else if (e instanceof NSDForever) {
-            return parseForever((NSDForever) e);
-        } else if (e instanceof NSDTestFirstLoop) {
-            return parseTestFirstLoop((NSDTestFirstLoop) e);
+        ScriptFrame top = new ScriptFrame(container, null);
+
+        Deque<ScriptFrame> stack = new ArrayDeque<>();
+        stack.push(top);
+
+        while (!stack.isEmpty()) {
+            ScriptFrame frame = stack.peek();
+
+            if (frame.children.hasNext()) {
+                NSDElement child = frame.children.next();
+                if (child instanceof NSDInstruction) {
+                    frame.blocks.add(parseInstruction((NSDInstruction) child));
+                } else {
+                    Structure structure = beginStructure(child, frame);
+                    stack.push(new ScriptFrame(structure.scripts.next(), structure));
+                }
+                continue;
+            }
+
+            stack.pop();
+
+            Structure owner = frame.owner;
+            if (owner == null) {
+                continue;
+            }
+
+            owner.parsed.add(new ScriptExpression(frame.container, frame.blocks));
+            if (owner.scripts.hasNext()) {
+                stack.push(new ScriptFrame(owner.scripts.next(), owner));
+            } else {
+                owner.parent.blocks.add(finishStructure(owner));
+            }
         }
 
-        throw new NSDParserException(e, "unknown element: " + e.getClass());
+        return top.blocks;
     }
 
     /**
@@ -168,83 +211,115 @@ public class NSDParser
     }
 
     /**
-     * Parses the given "decision" element (i.e., an if or if-else).
+     * Starts parsing the given structure element (a decision or loop) by
+     * parsing its label. Its scripts are then to be parsed in order.
      *
      * @param e The element to parse.
-     * @return The parsed block expression.
+     * @param parent The script the element is contained in.
+     * @return The structure whose scripts are to be parsed.
      *
-     * @throws NSDParserException
+     * @throws NSDParserException If the element is of an unknown type or its label cannot be parsed.
      */
-    private BlockExpression parseDecision(NSDDecision e) throws NSDParserException
+    private Structure beginStructure(NSDElement e, ScriptFrame parent) throws NSDParserException
     {
-        Expression condition = parseExpression(e, e.getLabel());
-
-        ScriptExpression then = parseScript(e.getThen());
-        ScriptExpression otherwise = parseScript(e.getElse());
-
-        if (otherwise.size() == 0) {
-            return new BlockExpression(e, IfBlock.instance.getDescription(),
-                    Arrays.asList(condition, then));
+        if (e instanceof NSDDecision) {
+            NSDDecision d = (NSDDecision) e;
+            Expression condition = parseExpression(e, e.getLabel());
+            return new Structure(e, condition, Arrays.asList(d.getThen(), d.getElse()), parent);
+        } else if (e instanceof NSDForever) {
+            return new Structure(e, null, Collections.singletonList((NSDForever) e), parent);
+        } else if (e instanceof NSDTestFirstLoop) {
+            // parse as normal block
+            BlockExpression exp = (BlockExpression) parseExpression(e, e.getLabel());
+            return new Structure(e, exp, Collections.singletonList((NSDTestFirstLoop) e), parent);
         }
 
-        return new BlockExpression(e, IfElseBlock.instance.getDescription(),
-                Arrays.asList(condition, then, otherwise));
+        throw new NSDParserException(e, "unknown element: " + e.getClass());
     }
 
     /**
-     * Parses the given "forever" loop element.
-     *
-     * @param e The element to parse.
-     * @return The parsed block expression.
+     * Builds the block for a structure whose scripts have all been parsed.
      *
-     * @throws NSDParserException
+     * @param s The structure.
+     * @return The block expression.
      */
-    private BlockExpression parseForever(NSDForever e) throws NSDParserException
+    private BlockExpression finishStructure(Structure s)
     {
-        return new BlockExpression(e, ForeverBlock.instance.getDescription(),
-                Collections.singletonList(parseScript(e)));
-    }
+        if (s.element instanceof NSDDecision) {
+            // if, or if-else when there is an else branch
+            ScriptExpression then = s.parsed.get(0);
+            ScriptExpression otherwise = s.parsed.get(1);
 
-    /**
-     * Parses the given "test first" loop element.
-     *
-     * @param e The element to parse.
-     * @return The parsed block expression.
-     *
-     * @throws NSDParserException
-     */
-    private BlockExpression parseTestFirstLoop(NSDTestFirstLoop e) throws NSDParserException
-    {
-        // parse as normal block
-        String label = e.getLabel();
-        BlockExpression exp = (BlockExpression) parseExpression(e, label);
+            if (otherwise.size() == 0) {
+                return new BlockExpression(s.element, IfBlock.instance.getDescription(),
+                        Arrays.asList(s.label, then));
+            }
+
+            return new BlockExpression(s.element, IfElseBlock.instance.getDescription(),
+                    Arrays.asList(s.label, then, otherwise));
+        } else if (s.element instanceof NSDForever) {
+            return new BlockExpression(s.element, ForeverBlock.instance.getDescription(),
+                    Collections.singletonList(s.parsed.get(0)));
+        }
+
+        // "test first" loop: extend the parsed label by a loop parameter
+        BlockExpression exp = (BlockExpression) s.label;
 
-        // extend description: add loop parameter
         BlockDescription.Builder descBuilder = exp.getDescription().toBuilder();
         descBuilder.param(ScratchType.LOOP);
 
-        // extend params: add loop parameter
         List<Expression> params = new ArrayList<>(exp.getParameters());
-        params.add(parseScript(e));
+        params.add(s.parsed.get(0));
 
-        return new BlockExpression(e, descBuilder.build(), params);
+        return new BlockExpression(s.element, descBuilder.build(), params);
     }
 
     /**
-     * Parses all child elements of the given container and returns them as a
-     * script expression.
-     *
-     * @param e The container element.
-     * @return The parsed script expression.
-     *
-     * @throws NSDParserException
+     * A script (sequence of elements) being parsed.
+     */
+    private static class ScriptFrame
+    {
+        private final NSDContainer<NSDElement> container;
+        private final Iterator<NSDElement> children;
+        private final List<BlockExpression> blocks = new ArrayList<>();
+        private final Structure owner;
+
+        /**
+         * @param container The container holding the script's elements.
+         * @param owner The structure the script belongs to, or null.
+         */
+        private ScriptFrame(NSDContainer<NSDElement> container, Structure owner)
+        {
+            this.container = container;
+            this.children = container.iterator();
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * A decision or loop element whose scripts are being parsed.
      */
-    private ScriptExpression parseScript(NSDContainer<NSDElement> e) throws NSDParserException
+    private static class Structure
     {
-        List<BlockExpression> blocks = new ArrayList<>();
-        for (NSDElement child : e) {
-            blocks.add(parseElement(child));
+        private final NSDElement element;
+        private final Expression label;
+        private final Iterator<NSDContainer<NSDElement>> scripts;
+        private final List<ScriptExpression> parsed = new ArrayList<>(2);
+        private final ScriptFrame parent;
+
+        /**
+         * @param element The structure element.
+         * @param label The parsed label, if any.
+         * @param scripts The containers holding the structure's scripts.
+         * @param parent The script the structure is contained in.
+         */
+        private Structure(NSDElement element, Expression label, List<? extends NSDContainer<NSDElement>> scripts,
+                ScriptFrame parent)
+        {
+            this.element = element;
+            this.label = label;
+            this.scripts = new ArrayList<NSDContainer<NSDElement>>(scripts).iterator();
+            this.parent = parent;
         }
-        return new ScriptExpression(e, blocks);
     }
 }
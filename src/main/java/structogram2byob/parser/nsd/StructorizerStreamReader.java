@@ -0,0 +1,351 @@
+package structogram2byob.parser.nsd;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import nsdlib.elements.NSDElement;
+import nsdlib.elements.NSDInstruction;
+import nsdlib.elements.NSDRoot;
+import nsdlib.elements.alternatives.NSDDecision;
+import nsdlib.elements.loops.NSDForever;
+import nsdlib.elements.loops.NSDTestFirstLoop;
+import nsdlib.elements.loops.NSDTestLastLoop;
+import nsdlib.reader.NSDReaderException;
+import nsdlib.reader.StructorizerReader;
+
+
+/**
+ * Reader for Structorizer diagram files that builds the element tree directly
+ * from a stream of parser events, without constructing a DOM first. Only the
+ * elements on the path from the root to the current position are held besides
+ * the result, and nesting depth is limited by memory only, not by the stack.
+ *
+ * <p>
+ * Instructions, alternatives, while, for, repeat and forever loops are built
+ * directly. Any other element, such as calls, jumps, cases or parallel
+ * sections, is buffered on its own and handed to nsdlib's
+ * {@link StructorizerReader}, so that it yields exactly the same element types
+ * as before; {@link NSDParser} rejects those it cannot compile. Only such
+ * subtrees are held in memory as a whole. Multi-line texts are joined with line
+ * feeds. Document type declarations are not processed, so entities cannot be
+ * expanded.
+ *
+ * <p>
+ * Instances are not thread-safe, but cheap to create, so that every thread can
+ * use its own.
+ */
+public class StructorizerStreamReader
+{
+    private final XMLInputFactory factory;
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+    private StructorizerReader fallback;
+
+    /**
+     * Constructs a new reader.
+     */
+    public StructorizerStreamReader()
+    {
+        factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Reads a diagram from the given stream. The stream is not closed.
+     *
+     * @param in The stream to read from.
+     * @return The diagram's root element.
+     *
+     * @throws NSDReaderException If the stream does not contain a valid diagram.
+     * @throws IOException If the stream cannot be read.
+     */
+    public NSDRoot read(InputStream in) throws NSDReaderException, IOException
+    {
+        XMLStreamReader xml = null;
+        try {
+            xml = factory.createXMLStreamReader(in);
+            return read(xml);
+        } catch (XMLStreamException e) {
+            if (e.getNestedException() instanceof IOException) {
+                throw (IOException) e.getNestedException();
+            }
+            throw new NSDReaderException(e);
+        } finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to release
+                }
+            }
+        }
+    }
+
+    private NSDRoot read(XMLStreamReader xml) throws XMLStreamException, NSDReaderException, IOException
+    {
+        xml.nextTag();
+        if (!xml.getLocalName().equals("root")) {
+            throw new NSDReaderException("not a Structorizer diagram: <" + xml.getLocalName() + ">");
+        }
+
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(Kind.ROOT, getText(xml)));
+
+        while (true) {
+            int event = xml.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Frame top = stack.peek();
+                if (top.branch == null) {
+                    top.open(xml.getLocalName());
+                    continue;
+                }
+                Kind kind = getKind(xml.getLocalName());
+                if (kind != null) {
+                    stack.push(new Frame(kind, getText(xml)));
+                } else {
+                    top.branch.add(readForeign(xml));
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                Frame top = stack.peek();
+                if (top.branch != null) {
+                    top.branch = null;
+                    continue;
+                }
+                stack.pop();
+                NSDElement element = top.build();
+                if (stack.isEmpty()) {
+                    return (NSDRoot) element;
+                }
+                stack.peek().branch.add(element);
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                throw new NSDReaderException("unexpected end of document");
+            }
+        }
+    }
+
+    private static Kind getKind(String element)
+    {
+        switch (element) {
+            case "instruction":
+                return Kind.INSTRUCTION;
+            case "alternative":
+                return Kind.ALTERNATIVE;
+            case "while":
+                return Kind.WHILE;
+            case "for":
+                return Kind.FOR;
+            case "repeat":
+                return Kind.REPEAT;
+            case "forever":
+                return Kind.FOREVER;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads the element at the current position, including its subtree, with
+     * nsdlib's reader. The element is copied into a diagram of its own for
+     * that purpose. Afterwards, the stream is positioned at its end tag.
+     *
+     * @param xml The stream, positioned at the element's start tag.
+     * @return The element read.
+     */
+    private NSDElement readForeign(XMLStreamReader xml) throws XMLStreamException, NSDReaderException, IOException
+    {
+        StringWriter buffer = new StringWriter();
+        XMLStreamWriter out = outputFactory.createXMLStreamWriter(buffer);
+        out.writeStartElement("root");
+        out.writeAttribute("text", "");
+        out.writeStartElement("children");
+
+        int depth = 0;
+        while (true) {
+            switch (xml.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    out.writeStartElement(xml.getLocalName());
+                    for (int i = 0; i < xml.getAttributeCount(); ++i) {
+                        out.writeAttribute(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+                    }
+                    ++depth;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    out.writeEndElement();
+                    --depth;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    out.writeCharacters(xml.getText());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new NSDReaderException("unexpected end of document");
+                default:
+                    break;
+            }
+            if (depth == 0) {
+                break;
+            }
+            xml.next();
+        }
+
+        out.writeEndDocument();
+        out.close();
+
+        if (fallback == null) {
+            fallback = new StructorizerReader();
+        }
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        NSDRoot root = fallback.read(new ByteArrayInputStream(bytes));
+        if (root.countChildren() != 1) {
+            throw new NSDReaderException("unexpected contents in <" + xml.getLocalName() + ">");
+        }
+        return root.getChild(0);
+    }
+
+    private static String getText(XMLStreamReader xml)
+    {
+        String text = xml.getAttributeValue(null, "text");
+        return text == null ? "" : decodeText(text);
+    }
+
+    /**
+     * Decodes an element text. Structorizer stores every line in double quotes
+     * (with quotes inside doubled), separated by commas. Texts not in that
+     * format are returned unchanged.
+     *
+     * @param text The attribute value.
+     * @return The lines of the text, joined with line feeds.
+     */
+    static String decodeText(String text)
+    {
+        StringBuilder sb = new StringBuilder(text.length());
+        int i = 0, n = text.length();
+
+        while (true) {
+            if (i >= n || text.charAt(i) != '"') {
+                return text;
+            }
+            ++i;
+
+            while (true) {
+                if (i >= n) {
+                    return text;
+                }
+                char c = text.charAt(i++);
+                if (c != '"') {
+                    sb.append(c);
+                } else if (i < n && text.charAt(i) == '"') {
+                    sb.append('"');
+                    ++i;
+                } else {
+                    break;
+                }
+            }
+
+            if (i == n) {
+                return sb.toString();
+            }
+            if (text.charAt(i++) != ',') {
+                return text;
+            }
+            sb.append('\n');
+        }
+    }
+
+    /**
+     * The supported kinds of elements, together with the names of their
+     * branches, in order.
+     */
+    private enum Kind
+    {
+        ROOT("children"),
+        INSTRUCTION,
+        ALTERNATIVE("qTrue", "qFalse"),
+        WHILE("qWhile"),
+        FOR("qFor"),
+        REPEAT("qRepeat"),
+        FOREVER("qForever");
+
+        private final List<String> branches;
+
+        Kind(String... branches)
+        {
+            this.branches = Collections.unmodifiableList(Arrays.asList(branches));
+        }
+    }
+
+    /**
+     * An element whose end has not been reached yet.
+     */
+    private static class Frame
+    {
+        private final Kind kind;
+        private final String label;
+        private final List<List<NSDElement>> branches;
+
+        // the branch currently being read, if any
+        private List<NSDElement> branch;
+
+        private Frame(Kind kind, String label)
+        {
+            this.kind = kind;
+            this.label = label;
+            this.branches = new ArrayList<>(kind.branches.size());
+            for (int i = 0; i < kind.branches.size(); ++i) {
+                branches.add(new ArrayList<>());
+            }
+        }
+
+        private void open(String name) throws NSDReaderException
+        {
+            int index = kind.branches.indexOf(name);
+            if (index < 0) {
+                throw new NSDReaderException(
+                        "unexpected element <" + name + "> in " + kind.name().toLowerCase(Locale.ROOT));
+            }
+            branch = branches.get(index);
+        }
+
+        private NSDElement build()
+        {
+            switch (kind) {
+                case ROOT:
+                    NSDRoot root = new NSDRoot(label);
+                    for (NSDElement child : branches.get(0)) {
+                        root.addChild(child);
+                    }
+                    return root;
+                case ALTERNATIVE:
+                    return new NSDDecision(label, branches.get(0), branches.get(1));
+                case WHILE:
+                case FOR:
+                    return new NSDTestFirstLoop(label, branches.get(0));
+                case REPEAT:
+                    return new NSDTestLastLoop(label, branches.get(0));
+                case FOREVER:
+                    return new NSDForever(branches.get(0));
+                default:
+                    return new NSDInstruction(label);
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package structogram2byob.program;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import scratchlib.objects.ScratchObject;
+import scratchlib.project.ScratchProject;
+import structogram2byob.blocks.Block;
+import structogram2byob.blocks.BlockDescription;
+import structogram2byob.blocks.BlockRegistry;
+
+
+/**
+ * A program that is compiled incrementally while units are added and removed.
+ *
+ * <p>
+ * The session keeps all of its units linked against one registry, which
+ * extends the base registry by the custom blocks of the units, and caches the
+ * serialized form of every unit. Blocks of the base registry take precedence
+ * over custom blocks, and among custom blocks the one registered first wins.
+ * The session keeps the registration order equal to the unit order, so only
+ * the following units need to be linked again when the custom blocks change:
+ *
+ * <ul>
+ * <li>when a custom block is added, the units with a reference that the block
+ * matches and that is either unresolved or resolved to a block of a later unit;
+ * <li>when a custom block is removed or replaced by one with the same
+ * description, the units with a reference that was resolved to it.
+ * </ul>
+ *
+ * <p>
+ * Errors and conversion results are the same as for a {@link Program}
+ * consisting of the session's units, in order.
+ */
+public class CompilationSession
+{
+    private final BlockRegistry base;
+    private BlockRegistry blocks;
+
+    private final List<ProgramUnit> units = new ArrayList<>();
+    private final Map<ProgramUnit, UnitState> states = new IdentityHashMap<>();
+    private final Set<Block> customBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private long linkCount;
+
+    /**
+     * Constructs an empty session.
+     *
+     * @param base The available blocks, excluding custom blocks.
+     */
+    public CompilationSession(BlockRegistry base)
+    {
+        this.base = base;
+        this.blocks = new BlockRegistry(base);
+    }
+
+    /**
+     * Appends the given unit, linking it as well as all units affected by the
+     * custom block it defines.
+     *
+     * @param unit The unit to add.
+     *
+     * @throws IllegalArgumentException If the unit is already part of this session.
+     */
+    public void add(ProgramUnit unit)
+    {
+        add(units.size(), unit);
+    }
+
+    /**
+     * Inserts the given unit at the given position, linking it as well as all
+     * units affected by the custom block it defines.
+     *
+     * @param index The position of the unit.
+     * @param unit The unit to add.
+     *
+     * @throws IllegalArgumentException If the unit is already part of this session.
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    public void add(int index, ProgramUnit unit)
+    {
+        if (states.containsKey(unit)) {
+            throw new IllegalArgumentException("unit already in session");
+        }
+        if (index < 0 || index > units.size()) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+
+        UnitState state = new UnitState();
+        units.add(index, unit);
+        states.put(unit, state);
+
+        if (unit.getType() != UnitType.SCRIPT) {
+            BlockDescription desc = unit.getInvocationBlock().getDescription();
+
+            // blocks of later units, which were registered before the new one
+            Set<Block> later = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = index + 1; i < units.size(); ++i) {
+                ProgramUnit u = units.get(i);
+                if (u.getType() == UnitType.SCRIPT || states.get(u).registrationError != null) {
+                    continue;
+                }
+                if (u.getInvocationBlock().getDescription().equals(desc)) {
+                    // the new unit takes over the definition from a later one
+                    rebuild();
+                    return;
+                }
+                later.add(u.getInvocationBlock());
+            }
+
+            state.registrationError = Program.register(unit, blocks);
+            if (state.registrationError == null) {
+                customBlocks.add(unit.getInvocationBlock());
+
+                for (ProgramUnit u : units.subList(index + 1, units.size())) {
+                    if (later.contains(u.getInvocationBlock())) {
+                        blocks.unregister(u.getInvocationBlock());
+                        blocks.register(u.getInvocationBlock());
+                    }
+                }
+
+                for (ProgramUnit u : units) {
+                    UnitState s = states.get(u);
+                    if (u != unit && s.isAffectedByAddition(desc, later)) {
+                        link(u, s);
+                    }
+                }
+            }
+        }
+
+        link(unit, state);
+    }
+
+    /**
+     * Replaces the given unit by another one at the same position. If both
+     * define a custom block with the same description, or both are scripts,
+     * only the new unit and the units that invoke the block are linked.
+     * Otherwise, this is equivalent to removing the old unit and inserting the
+     * new one.
+     *
+     * @param old The unit to replace.
+     * @param unit The new unit.
+     *
+     * @throws IllegalArgumentException If the old unit is not part of this
+     *             session, or the new one already is.
+     */
+    public void replace(ProgramUnit old, ProgramUnit unit)
+    {
+        UnitState oldState = states.get(old);
+        if (oldState == null) {
+            throw new IllegalArgumentException("unit not in session");
+        }
+        if (states.containsKey(unit)) {
+            throw new IllegalArgumentException("unit already in session");
+        }
+
+        int index = indexOf(old);
+
+        boolean scripts = old.getType() == UnitType.SCRIPT && unit.getType() == UnitType.SCRIPT;
+        boolean sameBlock = old.getType() != UnitType.SCRIPT && unit.getType() != UnitType.SCRIPT
+                && old.getInvocationBlock().getDescription().equals(unit.getInvocationBlock().getDescription());
+        if (!scripts && !sameBlock) {
+            remove(old);
+            add(index, unit);
+            return;
+        }
+
+        UnitState state = new UnitState();
+        states.remove(old);
+        units.set(index, unit);
+        states.put(unit, state);
+
+        if (sameBlock) {
+            if (oldState.registrationError != null) {
+                // the earlier definition is still registered
+                state.registrationError = Program.register(unit, blocks);
+            } else {
+                Block block = old.getInvocationBlock();
+                blocks.replace(block, unit.getInvocationBlock());
+                customBlocks.remove(block);
+                customBlocks.add(unit.getInvocationBlock());
+
+                for (ProgramUnit u : units) {
+                    UnitState s = states.get(u);
+                    if (u != unit && s.isAffectedByRemoval(block)) {
+                        link(u, s);
+                    }
+                }
+            }
+        }
+
+        link(unit, state);
+    }
+
+    private int indexOf(ProgramUnit unit)
+    {
+        for (int i = 0; i < units.size(); ++i) {
+            if (units.get(i) == unit) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the given unit, linking all units affected by the removal of the
+     * custom block it defines.
+     *
+     * @param unit The unit to remove.
+     *
+     * @throws IllegalArgumentException If the unit is not part of this session.
+     */
+    public void remove(ProgramUnit unit)
+    {
+        UnitState state = states.remove(unit);
+        if (state == null) {
+            throw new IllegalArgumentException("unit not in session");
+        }
+        units.remove(indexOf(unit));
+
+        if (unit.getType() == UnitType.SCRIPT || state.registrationError != null) {
+            return;
+        }
+
+        Block block = unit.getInvocationBlock();
+        blocks.unregister(block);
+        customBlocks.remove(block);
+
+        // a duplicate definition would now be registered in place of the removed one,
+        // which an incremental update cannot reproduce
+        for (ProgramUnit u : units) {
+            if (states.get(u).registrationError != null
+                    && u.getInvocationBlock().getDescription().equals(block.getDescription())) {
+                rebuild();
+                return;
+            }
+        }
+
+        for (ProgramUnit u : units) {
+            UnitState s = states.get(u);
+            if (s.isAffectedByRemoval(block)) {
+                link(u, s);
+            }
+        }
+    }
+
+    /**
+     * Registers all custom blocks anew and links all units.
+     */
+    private void rebuild()
+    {
+        blocks = new BlockRegistry(base);
+        customBlocks.clear();
+
+        for (ProgramUnit u : units) {
+            UnitState s = states.get(u);
+            if (u.getType() != UnitType.SCRIPT) {
+                s.registrationError = Program.register(u, blocks);
+                if (s.registrationError == null) {
+                    customBlocks.add(u.getInvocationBlock());
+                }
+            }
+        }
+
+        for (ProgramUnit u : units) {
+            link(u, states.get(u));
+        }
+    }
+
+    private void link(ProgramUnit unit, UnitState state)
+    {
+        Linker linker = new Linker(blocks);
+        unit.link(linker);
+
+        state.linkErrors = new ArrayList<>(linker.getErrors());
+        state.serialized = null;
+
+        // references resolved by the base registry can never change
+        state.references = new HashMap<>();
+        for (Map.Entry<BlockDescription, Block> entry : linker.getResolved().entrySet()) {
+            if (entry.getValue() == null || customBlocks.contains(entry.getValue())) {
+                state.references.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        ++linkCount;
+    }
+
+    /**
+     * @return The units of this session, in order.
+     */
+    public List<ProgramUnit> getUnits()
+    {
+        return Collections.unmodifiableList(units);
+    }
+
+    /**
+     * Returns all errors of the current units: first all duplicate custom block
+     * definitions, then all unresolved references, each in unit order.
+     *
+     * @return All errors, or an empty list if the program is valid.
+     */
+    public List<ScratchConversionException> getErrors()
+    {
+        List<ScratchConversionException> errors = new ArrayList<>();
+        for (ProgramUnit u : units) {
+            if (states.get(u).registrationError != null) {
+                errors.add(states.get(u).registrationError);
+            }
+        }
+        for (ProgramUnit u : units) {
+            errors.addAll(states.get(u).linkErrors);
+        }
+        return errors;
+    }
+
+    /**
+     * @return The number of times a unit was linked since this session was created.
+     */
+    public long getLinkCount()
+    {
+        return linkCount;
+    }
+
+    /**
+     * Converts the current units into a {@link ScratchProject}, like
+     * {@link Program#toScratch(BlockRegistry, boolean)} would. Only units that
+     * were linked since the last conversion are serialized again; those that
+     * were linked against another registry in the meantime are linked again
+     * first.
+     *
+     * @param parallel Whether to serialize the units concurrently.
+     * @return The units converted to a Scratch project.
+     *
+     * @throws ScratchConversionException If there are errors (see {@link #getErrors()}).
+     */
+    public ScratchProject toScratch(boolean parallel) throws ScratchConversionException
+    {
+        List<ScratchConversionException> errors = getErrors();
+        if (!errors.isEmpty()) {
+            // the errors are kept, so attach the others to a copy of the first
+            ScratchConversionException first = errors.get(0);
+            ScratchConversionException e = new ScratchConversionException(first.getElement(), first.getMessage(),
+                    first.getCause());
+            for (int i = 1; i < errors.size(); ++i) {
+                e.addSuppressed(errors.get(i));
+            }
+            throw e;
+        }
+
+        List<ProgramUnit> pending = new ArrayList<>();
+        for (ProgramUnit u : units) {
+            UnitState state = states.get(u);
+            if (state.serialized == null) {
+                // the unit may have been linked elsewhere since, e.g. as part of a program
+                if (!u.isLinked(blocks)) {
+                    link(u, state);
+                }
+                pending.add(u);
+            }
+        }
+
+        ScratchObject[] results = Program.serializeUnits(pending, blocks, parallel);
+        for (int i = 0; i < results.length; ++i) {
+            states.get(pending.get(i)).serialized = results[i];
+        }
+
+        ScratchObject[] serialized = new ScratchObject[units.size()];
+        for (int i = 0; i < serialized.length; ++i) {
+            serialized[i] = states.get(units.get(i)).serialized;
+        }
+
+        return Program.createProject(units, serialized);
+    }
+
+    /**
+     * The compilation state of a single unit.
+     */
+    private static class UnitState
+    {
+        private ScratchConversionException registrationError;
+        private List<ScratchConversionException> linkErrors = Collections.emptyList();
+        private Map<BlockDescription, Block> references = Collections.emptyMap();
+        private ScratchObject serialized;
+
+        private boolean isAffectedByAddition(BlockDescription desc, Set<Block> shadowed)
+        {
+            for (Map.Entry<BlockDescription, Block> entry : references.entrySet()) {
+                if ((entry.getValue() == null || shadowed.contains(entry.getValue()))
+                        && desc.isAssignableFrom(entry.getKey())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isAffectedByRemoval(Block block)
+        {
+            return references.containsValue(block);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package structogram2byob.program;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nsdlib.elements.NSDElement;
+import structogram2byob.blocks.Block;
+import structogram2byob.blocks.BlockDescription;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.program.expressions.BlockExpression;
+
+
+/**
+ * State of a link pass, which resolves the block references of a program
+ * against a block registry once, ahead of serialization.
+ *
+ * <p>
+ * Instead of failing on the first unresolved reference, the linker collects
+ * all errors so they can be reported together.
+ *
+ * <p>
+ * The linker also hash-conses shareable expressions: for every structural key,
+ * the first expression linked with that key becomes the representative that
+ * all later ones serialize through (see {@link #share(Object, BlockExpression)}).
+ */
+public class Linker
+{
+    private final BlockRegistry blocks;
+    private final List<ScratchConversionException> errors = new ArrayList<>();
+    private final Map<Object, BlockExpression> shared = new HashMap<>();
+    private final List<BlockExpression> representatives = new ArrayList<>();
+    private final Map<BlockDescription, Block> resolved = new HashMap<>();
+
+    /**
+     * @param blocks The available blocks, including all custom blocks.
+     */
+    public Linker(BlockRegistry blocks)
+    {
+        this.blocks = blocks;
+    }
+
+    /**
+     * @return The registry that references are resolved against.
+     */
+    public BlockRegistry getBlocks()
+    {
+        return blocks;
+    }
+
+    /**
+     * Looks up the block matching the given description. If there is none, an
+     * error is recorded for the given element.
+     *
+     * @param element The element the reference stems from.
+     * @param desc The description to resolve.
+     * @return The resolved block, or null if it is unknown.
+     */
+    public Block resolve(NSDElement element, BlockDescription desc)
+    {
+        Block block = blocks.lookup(desc);
+        resolved.put(desc, block);
+        if (block == null) {
+            addError(new ScratchConversionException(element, "unknown block: " + desc));
+        }
+        return block;
+    }
+
+    /**
+     * @return All descriptions resolved so far, mapped to the resulting block,
+     *         or to null if they could not be resolved.
+     */
+    public Map<BlockDescription, Block> getResolved()
+    {
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * Returns the representative expression for the given structural key. If
+     * there is none yet, the given expression becomes the representative.
+     *
+     * @param key The structural key of the expression.
+     * @param exp The expression.
+     * @return The representative expression for the key.
+     */
+    public BlockExpression share(Object key, BlockExpression exp)
+    {
+        BlockExpression representative = shared.putIfAbsent(key, exp);
+        if (representative != null) {
+            return representative;
+        }
+        representatives.add(exp);
+        return exp;
+    }
+
+    /**
+     * @return All representative expressions, in order of creation.
+     */
+    public List<BlockExpression> getRepresentatives()
+    {
+        return Collections.unmodifiableList(representatives);
+    }
+
+    /**
+     * Records the given error.
+     *
+     * @param error The error.
+     */
+    public void addError(ScratchConversionException error)
+    {
+        errors.add(error);
+    }
+
+    /**
+     * @return All errors recorded so far, in order of occurrence.
+     */
+    public List<ScratchConversionException> getErrors()
+    {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Throws the first recorded error, if any, with all further errors attached
+     * as suppressed exceptions.
+     *
+     * @throws ScratchConversionException If there were errors.
+     */
+    public void throwErrors() throws ScratchConversionException
+    {
+        if (errors.isEmpty()) {
+            return;
+        }
+
+        ScratchConversionException first = errors.get(0);
+        for (int i = 1; i < errors.size(); ++i) {
+            first.addSuppressed(errors.get(i));
+        }
+
+        throw first;
+    }
+}
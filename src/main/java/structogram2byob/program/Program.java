@@ -3,10 +3,11 @@ package structogram2byob.program;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.IntStream;
 
+import scratchlib.objects.ScratchObject;
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import scratchlib.objects.fixed.collections.ScratchObjectOrderedCollection;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.fixed.dimensions.ScratchObjectPoint;
 import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
 import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
@@ -48,6 +49,44 @@ public class Program
      * @throws ScratchConversionException When the conversion fails.
      */
     public ScratchProject toScratch(BlockRegistry blocks) throws ScratchConversionException
+    {
+        return toScratch(blocks, false);
+    }
+
+    /**
+     * Converts this program into a {@link ScratchProject} by setting up the
+     * stage and a sprite, as well as serializing all the units.
+     *
+     * <p>
+     * If requested, the units are serialized concurrently on the common
+     * fork-join pool. Script positions are assigned afterwards in unit order,
+     * so the resulting project is identical to one converted sequentially. If
+     * several units fail, the exception of the first of them is thrown, just as
+     * in sequential conversion.
+     *
+     * @param blocks The available blocks.
+     * @param parallel Whether to serialize the units concurrently.
+     * @return This program converted to a Scratch project.
+     *
+     * @throws ScratchConversionException When the conversion fails.
+     */
+    public ScratchProject toScratch(BlockRegistry blocks, boolean parallel) throws ScratchConversionException
+    {
+        BlockRegistry linked = link(blocks);
+        return createProject(units, serializeUnits(units, linked, parallel));
+    }
+
+    /**
+     * Sets up a project with the stage and a sprite, and stores the given
+     * serialized units in it, either as a script or as a custom block.
+     * Script positions are assigned in unit order.
+     *
+     * @param units The units.
+     * @param serialized The serialized units, by index (see
+     *            {@link #serializeUnits(List, BlockRegistry, boolean)}).
+     * @return The Scratch project.
+     */
+    static ScratchProject createProject(List<ProgramUnit> units, ScratchObject[] serialized)
     {
         ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
 
@@ -63,65 +102,173 @@ public class Program
         stage.setField(ScratchObjectStageMorph.FIELD_CUSTOM_BLOCKS, cBlocks);
         sprite.setField(ScratchObjectSpriteMorph.FIELD_CUSTOM_BLOCKS, cBlocks);
 
-        serializeUnits(blocks, blocksBin, cBlocks);
+        // write the units
+        int y = 20;
+        for (int i = 0; i < serialized.length; ++i) {
+            ProgramUnit u = units.get(i);
+            if (u.getType() == UnitType.SCRIPT) {
+                blocksBin.add(createScript(serialized[i], y));
+                y += 50 + estimateHeight(u.getBlocks());
+            } else {
+                cBlocks.add(serialized[i]);
+            }
+        }
 
         return project;
     }
 
     /**
-     * Converts all program units into Scratch objects and stores them either as
-     * a script or as a custom block.
+     * Extends the given registry by the custom blocks this program defines, and
+     * resolves all block references of all units against the result. Every
+     * problem found is reported: the first one is thrown, with all others
+     * attached as suppressed exceptions.
      *
      * @param blocks The available blocks.
-     * @param scripts The array of scripts to write to.
-     * @param custom The array of custom blocks to write to.
+     * @return The extended registry the units were linked against.
      *
-     * @throws ScratchConversionException When the conversion fails.
+     * @throws ScratchConversionException When a custom block is defined twice or
+     *          a block reference cannot be resolved.
      */
-    private void serializeUnits(BlockRegistry blocks, ScratchObjectArray scripts, ScratchObjectOrderedCollection custom)
-            throws ScratchConversionException
+    public BlockRegistry link(BlockRegistry blocks) throws ScratchConversionException
     {
         // extend the block registry by all available custom blocks
         blocks = new BlockRegistry(blocks);
-        registerUnits(blocks);
 
-        // write the units
-        int y = 20;
+        Linker linker = new Linker(blocks);
+        registerUnits(linker);
+
         for (ProgramUnit u : units) {
-            if (u.getType() == UnitType.SCRIPT) {
-                scripts.add(serializeUnitAsScript(u, blocks, y));
-                y += 50 + estimateHeight(u.getBlocks());
-            } else {
-                custom.add(serializeUnitAsBlock(u, blocks));
+            u.link(linker);
+        }
+
+        linker.throwErrors();
+
+        return blocks;
+    }
+
+    /**
+     * Converts the given units into Scratch objects: scripts into their body,
+     * all other units into a custom block definition.
+     *
+     * <p>
+     * Units are converted independently of each other, which is safe to do
+     * concurrently as long as no lookups are performed: the lookup cache of a
+     * registry that is not frozen is not thread-safe. Concurrent conversion
+     * therefore requires every unit to be linked against the given registry
+     * without errors. If several units fail, the exception of the first of
+     * them is thrown, just as in sequential conversion.
+     *
+     * <p>
+     * Identical reporters share their serialized objects within one call only:
+     * the objects remembered for sharing are released afterwards.
+     *
+     * @param units The units, linked against the given registry.
+     * @param blocks The registry the units were linked against.
+     * @param parallel Whether to convert the units concurrently.
+     * @return The serialized units, by index.
+     *
+     * @throws ScratchConversionException When the conversion fails.
+     * @throws IllegalStateException When converting concurrently, but some unit
+     *          is not completely linked against the given registry.
+     */
+    static ScratchObject[] serializeUnits(List<ProgramUnit> units, BlockRegistry blocks, boolean parallel)
+            throws ScratchConversionException
+    {
+        ScratchObject[] serialized = new ScratchObject[units.size()];
+
+        if (!parallel) {
+            try {
+                for (int i = 0; i < serialized.length; ++i) {
+                    serialized[i] = serializeUnit(units.get(i), blocks);
+                }
+            } finally {
+                releaseSerialized(units);
+            }
+            return serialized;
+        }
+
+        for (ProgramUnit u : units) {
+            if (!u.isLinked(blocks)) {
+                throw new IllegalStateException("unit not linked against the registry: " + u.getUserSpec());
             }
         }
+
+        ScratchConversionException[] errors = new ScratchConversionException[serialized.length];
+
+        try {
+            IntStream.range(0, serialized.length).parallel().forEach(i -> {
+                try {
+                    serialized[i] = serializeUnit(units.get(i), blocks);
+                } catch (ScratchConversionException e) {
+                    errors[i] = e;
+                }
+            });
+        } finally {
+            releaseSerialized(units);
+        }
+
+        for (ScratchConversionException e : errors) {
+            if (e != null) {
+                throw e;
+            }
+        }
+
+        return serialized;
     }
 
-    private void registerUnits(BlockRegistry registry) throws ScratchConversionException
+    /**
+     * Discards the objects that hash-consed expressions of the given units
+     * remember for sharing, once the conversion is complete.
+     */
+    private static void releaseSerialized(List<ProgramUnit> units)
+    {
+        for (ProgramUnit u : units) {
+            u.releaseSerialized();
+        }
+    }
+
+    private void registerUnits(Linker linker)
     {
         for (ProgramUnit u : units) {
             if (u.getType() != UnitType.SCRIPT) {
-                try {
-                    registry.register(u.getInvocationBlock());
-                } catch (IllegalArgumentException e) {
-                    throw new ScratchConversionException(u.getElement(), e);
+                ScratchConversionException e = register(u, linker.getBlocks());
+                if (e != null) {
+                    linker.addError(e);
                 }
             }
         }
     }
 
-    private int estimateHeight(Collection<BlockExpression> blocks)
+    /**
+     * Registers the invocation block of the given unit with the given
+     * registry.
+     *
+     * @param u The unit, which must not be a script.
+     * @param blocks The registry.
+     * @return The error if the block is already defined, otherwise null.
+     */
+    static ScratchConversionException register(ProgramUnit u, BlockRegistry blocks)
     {
-        return blocks.stream().mapToInt(this::estimateHeight).sum();
+        try {
+            blocks.register(u.getInvocationBlock());
+        } catch (IllegalArgumentException e) {
+            return new ScratchConversionException(u.getElement(), e);
+        }
+        return null;
     }
 
-    private int estimateHeight(BlockExpression exp)
+    private static int estimateHeight(Collection<BlockExpression> blocks)
+    {
+        return blocks.stream().mapToInt(Program::estimateHeight).sum();
+    }
+
+    private static int estimateHeight(BlockExpression exp)
     {
         int height = 28;
 
         for (Expression param : exp.getParameters()) {
             if (param instanceof ScriptExpression) {
-                height += ((ScriptExpression) param).getBlocks().stream().mapToInt(this::estimateHeight).sum();
+                height += ((ScriptExpression) param).getBlocks().stream().mapToInt(Program::estimateHeight).sum();
             }
         }
 
@@ -129,23 +276,37 @@ public class Program
     }
 
     /**
-     * Converts the given unit into a Scratch script array, consisting of the
-     * script's location point and its body as another array.
+     * Converts the given unit into its body (for scripts) or into a custom
+     * block definition (for all other units).
      *
      * @param u The unit to serialize.
      * @param blocks The available blocks.
-     * @param y The y coordinate for script placement.
-     * @return A Scratch object describing a script.
+     * @return The serialized unit.
      *
      * @throws ScratchConversionException When the conversion fails.
      */
-    private ScratchObjectArray serializeUnitAsScript(ProgramUnit u, BlockRegistry blocks, int y)
-            throws ScratchConversionException
+    private static ScratchObject serializeUnit(ProgramUnit u, BlockRegistry blocks) throws ScratchConversionException
+    {
+        if (u.getType() == UnitType.SCRIPT) {
+            return u.toScratch(VariableMap.EMPTY, blocks);
+        }
+        return serializeUnitAsBlock(u, blocks);
+    }
+
+    /**
+     * Creates a Scratch script array, consisting of the script's location point
+     * and its body.
+     *
+     * @param body The serialized script body.
+     * @param y The y coordinate for script placement.
+     * @return A Scratch object describing a script.
+     */
+    private static ScratchObjectArray createScript(ScratchObject body, int y)
     {
         ScratchObjectArray script = new ScratchObjectArray();
 
         script.add(new ScratchObjectPoint(20, y));
-        script.add(u.toScratch(VariableMap.EMPTY, blocks));
+        script.add(body);
 
         return script;
     }
@@ -159,7 +320,7 @@ public class Program
      *
      * @throws ScratchConversionException When the conversion fails.
      */
-    private ScratchObjectCustomBlockDefinition serializeUnitAsBlock(ProgramUnit u, BlockRegistry blocks)
+    private static ScratchObjectCustomBlockDefinition serializeUnitAsBlock(ProgramUnit u, BlockRegistry blocks)
             throws ScratchConversionException
     {
         ScratchObjectCustomBlockDefinition cbd = new ScratchObjectCustomBlockDefinition();
@@ -169,7 +330,7 @@ public class Program
 
         ScratchType type = u.getType().getReturnType();
         String typeName = type == null ? "none" : type.name().toLowerCase();
-        cbd.setField(ScratchObjectCustomBlockDefinition.FIELD_TYPE, new ScratchObjectSymbol(typeName));
+        cbd.setField(ScratchObjectCustomBlockDefinition.FIELD_TYPE, ScratchObjectPool.instance.symbol(typeName));
 
         return cbd;
     }
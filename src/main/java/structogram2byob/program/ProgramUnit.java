@@ -4,15 +4,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import nsdlib.elements.NSDRoot;
 import scratchlib.objects.ScratchObject;
 import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
-import scratchlib.objects.fixed.data.ScratchObjectString;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.fixed.data.ScratchObjectUtf8;
 import scratchlib.objects.user.ScratchObjectVariableFrame;
 import structogram2byob.ScratchType;
@@ -38,6 +38,10 @@ public class ProgramUnit
 
     private final VariableContext thisContext = VariableContext.getForUnit(this);
 
+    private BlockRegistry linkedRegistry;
+    private Block linkedHat;
+    private List<BlockExpression> representatives = Collections.emptyList();
+
     /**
      * Constructs a new unit from the given header description and the given blocks.
      *
@@ -55,7 +59,7 @@ public class ProgramUnit
         this.description = description;
         this.blocks = Collections.unmodifiableList(new ArrayList<>(blocks));
 
-        this.unitBlock = new UnitBlock(description, ScratchType.ANY);
+        this.unitBlock = new UnitBlock(description, ScratchType.ANY, type.getReturnType() != null);
     }
 
     /**
@@ -98,6 +102,77 @@ public class ProgramUnit
         return unitBlock;
     }
 
+    /**
+     * Resolves the hat block (for scripts) and all block references in the
+     * unit body against the linker's registry. Subsequent conversions with
+     * that registry reuse the results. Unresolved references are recorded with
+     * the linker.
+     *
+     * @param linker The linker.
+     */
+    public void link(Linker linker)
+    {
+        linkedRegistry = null;
+        linkedHat = null;
+        int errorCount = linker.getErrors().size();
+        int representativeCount = linker.getRepresentatives().size();
+
+        Set<String> variables = new HashSet<>();
+        for (int i = 0, n = description.countParts(); i < n; ++i) {
+            if (description.isParameter(i)) {
+                variables.add(description.getLabel(i));
+            }
+        }
+
+        if (type == UnitType.SCRIPT) {
+            linkedHat = linker.resolve(element, description);
+        }
+
+        for (BlockExpression block : this.blocks) {
+            block.link(variables, linker);
+
+            // "script variables" blocks extend the scope of all following blocks
+            if (ScriptVariablesBlock.instance.getDescription().isAssignableFrom(block.getDescription())) {
+                variables = new HashSet<>(variables);
+                for (Expression param : block.getParameters()) {
+                    variables.add(((BlockExpression) param).getDescription().getLabel(0));
+                }
+            }
+        }
+
+        List<BlockExpression> created = linker.getRepresentatives();
+        representatives = new ArrayList<>(created.subList(representativeCount, created.size()));
+
+        if (linker.getErrors().size() == errorCount) {
+            linkedRegistry = linker.getBlocks();
+        }
+    }
+
+    /**
+     * Checks whether this unit was last linked against the given registry
+     * without errors. Converting it with that registry then resolves every
+     * block reference through the link results, without any lookups.
+     *
+     * @param blocks The registry.
+     * @return Whether this unit is completely linked against the registry.
+     */
+    boolean isLinked(BlockRegistry blocks)
+    {
+        return linkedRegistry == blocks;
+    }
+
+    /**
+     * Discards the results remembered by the representatives of hash-consed
+     * expressions that were created while linking this unit (see
+     * {@link BlockExpression#releaseSerialized()}).
+     */
+    void releaseSerialized()
+    {
+        for (BlockExpression exp : representatives) {
+            exp.releaseSerialized();
+        }
+    }
+
     /**
      * Converts this unit into an array of its blocks, given a map of variables
      * and a block registry to distinguish ambiguous parts.
@@ -118,7 +193,7 @@ public class ProgramUnit
 
         if (type == UnitType.SCRIPT) {
             // create hat block
-            Block hat = blocks.lookup(description);
+            Block hat = linkedRegistry == blocks ? linkedHat : blocks.lookup(description);
             if (hat == null) {
                 throw new ScratchConversionException(element, "unknown block: " + description);
             }
@@ -189,9 +264,18 @@ public class ProgramUnit
      */
     private static class UnitBlock extends Block
     {
-        public UnitBlock(BlockDescription desc, ScratchType returnValue)
+        private final boolean reporter;
+
+        public UnitBlock(BlockDescription desc, ScratchType returnValue, boolean reporter)
         {
             super(desc, returnValue);
+            this.reporter = reporter;
+        }
+
+        @Override
+        public boolean isShareable()
+        {
+            return reporter;
         }
 
         @Override
@@ -200,9 +284,9 @@ public class ProgramUnit
         {
             ScratchObjectArray a = new ScratchObjectArray();
 
-            a.add(new ScratchObjectSymbol("byob"));
-            a.add(new ScratchObjectString(""));
-            a.add(new ScratchObjectSymbol("doCustomBlock"));
+            a.add(ScratchObjectPool.instance.symbol("byob"));
+            a.add(ScratchObjectPool.instance.emptyString());
+            a.add(ScratchObjectPool.instance.symbol("doCustomBlock"));
 
             a.add(new ScratchObjectUtf8(getDescription().toUserSpec()));
 
@@ -0,0 +1,57 @@
+package structogram2byob.program;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+
+
+/**
+ * Pool of constant Scratch objects that are shared by all emitted blocks,
+ * instead of being allocated anew for every block. Since the writer stores
+ * every object only once, repeated occurrences of a shared object are written
+ * as references.
+ *
+ * <p>
+ * Sharing an object only changes how the project file stores it: reading the
+ * project back yields the same value at every occurrence, just as with
+ * separate copies. This holds for strings as well, which is why serialization
+ * also shares the read markers of unit parameters and the hash-consed variable
+ * reads containing them. The pool holds the most frequent objects, symbols and
+ * the empty string. Pooled objects must never be modified. This class is
+ * thread-safe.
+ */
+public class ScratchObjectPool
+{
+    /**
+     * The pool used for all serialization.
+     */
+    public static final ScratchObjectPool instance = new ScratchObjectPool();
+
+    private final ConcurrentMap<String, ScratchObjectSymbol> symbols = new ConcurrentHashMap<>();
+    private final ScratchObjectString emptyString = new ScratchObjectString("");
+
+    /**
+     * Returns the shared symbol object with the given value.
+     *
+     * @param value The symbol value.
+     * @return The shared symbol object.
+     */
+    public ScratchObjectSymbol symbol(String value)
+    {
+        ScratchObjectSymbol symbol = symbols.get(value);
+        if (symbol == null) {
+            symbol = symbols.computeIfAbsent(value, ScratchObjectSymbol::new);
+        }
+        return symbol;
+    }
+
+    /**
+     * @return The shared empty string object.
+     */
+    public ScratchObjectString emptyString()
+    {
+        return emptyString;
+    }
+}
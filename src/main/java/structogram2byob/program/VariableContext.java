@@ -147,6 +147,7 @@ public abstract class VariableContext
     private static class UnitSpecific extends VariableContext
     {
         private final ProgramUnit unit;
+        private volatile ScratchObject readMarker;
 
         private UnitSpecific(ProgramUnit unit)
         {
@@ -162,7 +163,13 @@ public abstract class VariableContext
         @Override
         public ScratchObject getReadMarker()
         {
-            return new ScratchObjectUtf8(unit.getUserSpec());
+            // one marker per unit, shared by all reads
+            ScratchObject marker = readMarker;
+            if (marker == null) {
+                marker = new ScratchObjectUtf8(unit.getUserSpec());
+                readMarker = marker;
+            }
+            return marker;
         }
 
         @Override
@@ -1,22 +1,31 @@
 package structogram2byob.program;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
 /**
  * A map of variable names to their respective contexts ({@link VariableContext}).
  * All instances are immutable.
+ *
+ * <p>
+ * Maps are persistent scope chains: each instance holds the entries of one
+ * scope and refers to the enclosing map, which is consulted for names the
+ * scope does not define. Combining maps therefore shares the existing scopes
+ * instead of copying their entries.
  */
 public class VariableMap
 {
     /**
      * The empty variable mapping.
      */
-    public static final VariableMap EMPTY = new VariableMap(Collections.emptyMap());
+    public static final VariableMap EMPTY = new VariableMap(Collections.emptyMap(), null);
 
-    private final Map<String, VariableContext> contexts;
+    private final Map<String, VariableContext> scope;
+    private final VariableMap parent;
 
     /**
      * Construct a new map with the given existing entries.
@@ -25,7 +34,17 @@ public class VariableMap
      */
     public VariableMap(Map<String, VariableContext> entries)
     {
-        this.contexts = new HashMap<>(entries);
+        this(new HashMap<>(entries), null);
+    }
+
+    /**
+     * @param scope The entries of the innermost scope (not copied).
+     * @param parent The enclosing map, or null.
+     */
+    private VariableMap(Map<String, VariableContext> scope, VariableMap parent)
+    {
+        this.scope = scope;
+        this.parent = parent;
     }
 
     /**
@@ -36,24 +55,60 @@ public class VariableMap
      */
     public VariableContext get(String name)
     {
-        return contexts.get(name);
+        for (VariableMap map = this; map != null; map = map.parent) {
+            VariableContext ctx = map.scope.get(name);
+            if (ctx != null) {
+                return ctx;
+            }
+        }
+        return null;
     }
 
     /**
-     * Create a copy of this map, then add all entries of the 'additions' map into that map,
-     * potentially overwriting existing definitions.
+     * Create a map containing the entries of this map as well as all entries
+     * of the 'additions' map, the latter overwriting existing definitions.
      * <p>
-     * This leaves both existing maps unchanged.
+     * This leaves both existing maps unchanged. The scopes of this map are
+     * shared, so the cost only depends on the number of scopes in 'additions'.
      *
      * @param additions The new entries.
      * @return The new map that is a combination of this one and the given one.
      */
     public VariableMap combine(VariableMap additions)
     {
-        Map<String, VariableContext> combined = new HashMap<>();
-        combined.putAll(contexts);
-        combined.putAll(additions.contexts);
+        if (additions.isEmpty()) {
+            return this;
+        }
+        if (this.isEmpty()) {
+            return additions;
+        }
+
+        // stack the scopes of 'additions' onto this map, keeping their order
+        List<Map<String, VariableContext>> scopes = new ArrayList<>();
+        for (VariableMap map = additions; map != null; map = map.parent) {
+            scopes.add(map.scope);
+        }
 
-        return new VariableMap(combined);
+        VariableMap combined = this;
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            if (!scopes.get(i).isEmpty()) {
+                combined = new VariableMap(scopes.get(i), combined);
+            }
+        }
+
+        return combined;
+    }
+
+    /**
+     * @return Whether this map contains no entries.
+     */
+    private boolean isEmpty()
+    {
+        for (VariableMap map = this; map != null; map = map.parent) {
+            if (!map.scope.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -1,34 +1,63 @@
 package structogram2byob.program.expressions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringJoiner;
 
 import nsdlib.elements.NSDElement;
 import scratchlib.objects.ScratchObject;
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
-import scratchlib.objects.fixed.data.ScratchObjectString;
-import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.fixed.data.ScratchObjectUtf8;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.program.Linker;
 import structogram2byob.program.ScratchConversionException;
+import structogram2byob.program.ScratchObjectPool;
 import structogram2byob.program.VariableContext;
 import structogram2byob.program.VariableMap;
 
 
 /**
  * Expression type for block invocations, including calls to variables.
+ *
+ * <p>
+ * Variable reads and invocations of shareable blocks (see
+ * {@link Block#isShareable()}) whose parameters are all literals or shareable
+ * themselves are hash-consed while linking: structurally identical
+ * expressions serialize through one representative, which remembers its
+ * result per variable scope. They thus share a single Scratch object, which
+ * the writer stores once and references from every occurrence. Since there is
+ * exactly one object per representative and scope, the sharing does not depend
+ * on the order in which units are serialized. The results are only remembered
+ * until the conversion is complete (see {@link #releaseSerialized()}).
  */
 public class BlockExpression extends Expression
 {
+    /**
+     * Marker distinguishing keys of variable reads from those of blocks.
+     */
+    private static final Object VARIABLE_KEY = new Object();
+
     private final BlockDescription description;
     private final List<Expression> parameters;
 
+    private BlockRegistry linkedRegistry;
+    private Block linkedBlock;
+
+    private BlockExpression representative;
+
+    // guarded by this; only used by representatives
+    private Map<VariableMap, ScratchObject> serialized;
+    private BlockRegistry serializedRegistry;
+
     /**
      * Constructs a new expression with the given description, and the given
      * parameters to substitute into the description.
@@ -67,11 +96,137 @@ public class BlockExpression extends Expression
         return ScratchType.ANY;
     }
 
+    /**
+     * @return Whether this expression could be a variable reference.
+     */
+    private boolean isVariableCandidate()
+    {
+        return description.countParts() == 1 && !description.isParameter(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Variable references are recognized by name. Everything else is resolved
+     * to a block, which is remembered for serialization with the same
+     * registry.
+     */
+    @Override
+    public void link(Set<String> variables, Linker linker)
+    {
+        representative = null;
+        releaseSerialized();
+
+        if (isVariableCandidate() && variables.contains(description.getLabel(0))) {
+            representative = linker.share(Arrays.asList(VARIABLE_KEY, description), this);
+            return;
+        }
+
+        Block b = linker.resolve(getElement(), description);
+        if (b == null) {
+            return;
+        }
+
+        linkedRegistry = linker.getBlocks();
+        linkedBlock = b;
+
+        b.link(parameters, variables, linker);
+
+        if (b.isShareable()) {
+            List<Object> key = computeShareKey();
+            if (key != null) {
+                representative = linker.share(key, this);
+            }
+        }
+    }
+
+    /**
+     * Computes the structural key of this expression from the description and
+     * the keys of the parameters: literal values, or the representatives of
+     * nested expressions.
+     *
+     * @return The key, or null if some parameter cannot be shared.
+     */
+    private List<Object> computeShareKey()
+    {
+        List<Object> key = new ArrayList<>(parameters.size() + 1);
+        key.add(description);
+
+        for (Expression param : parameters) {
+            if (param instanceof NumberExpression) {
+                key.add(((NumberExpression) param).getValue());
+            } else if (param instanceof StringExpression) {
+                key.add(((StringExpression) param).getValue());
+            } else if (param instanceof BlockExpression && ((BlockExpression) param).representative != null) {
+                key.add(((BlockExpression) param).representative);
+            } else {
+                return null;
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Hash-consed expressions return the object serialized for their
+     * representative with the same variable map (by identity) and registry,
+     * serializing it first if necessary. If the representative fails, the
+     * expression is serialized on its own, so that errors refer to its own
+     * elements.
+     */
     @Override
     public ScratchObject toScratch(VariableMap vars, BlockRegistry blocks) throws ScratchConversionException
+    {
+        if (representative == null) {
+            return serialize(vars, blocks);
+        }
+        if (representative != this) {
+            try {
+                return representative.toScratch(vars, blocks);
+            } catch (ScratchConversionException e) {
+                // the representative reports elements of its own unit; serializing
+                // this expression again reports the same error against ours
+                return serialize(vars, blocks);
+            }
+        }
+
+        // parameters are never representatives of their parents, so locks are
+        // always taken top-down and cannot deadlock
+        synchronized (this) {
+            if (serialized == null || serializedRegistry != blocks) {
+                serialized = new IdentityHashMap<>();
+                serializedRegistry = blocks;
+            }
+
+            ScratchObject result = serialized.get(vars);
+            if (result == null) {
+                result = serialize(vars, blocks);
+                serialized.put(vars, result);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Discards the results this expression remembers as a representative, so
+     * that the objects of a complete conversion are not kept alive by the
+     * program. Later conversions serialize the expression anew.
+     */
+    public synchronized void releaseSerialized()
+    {
+        serialized = null;
+        serializedRegistry = null;
+    }
+
+    private ScratchObject serialize(VariableMap vars, BlockRegistry blocks) throws ScratchConversionException
     {
         // check if this is a variable
-        if (description.countParts() == 1 && !description.isParameter(0)) {
+        if (isVariableCandidate()) {
             String varName = description.getLabel(0);
             VariableContext var = vars.get(varName);
             if (var != null) {
@@ -80,8 +235,8 @@ public class BlockExpression extends Expression
             }
         }
 
-        // serialize as block
-        Block b = blocks.lookup(description);
+        // serialize as block, using the linked one if available
+        Block b = linkedRegistry == blocks ? linkedBlock : blocks.lookup(description);
         if (b == null) {
             throw new ScratchConversionException(getElement(), "unknown block: " + description);
         }
@@ -96,13 +251,13 @@ public class BlockExpression extends Expression
         ScratchObjectArray a = new ScratchObjectArray();
 
         if (ctx.requiresBYOB()) {
-            a.add(new ScratchObjectSymbol("byob"));
-            a.add(new ScratchObjectString(""));
-            a.add(new ScratchObjectSymbol("readBlockVariable"));
+            a.add(ScratchObjectPool.instance.symbol("byob"));
+            a.add(ScratchObjectPool.instance.emptyString());
+            a.add(ScratchObjectPool.instance.symbol("readBlockVariable"));
             a.add(new ScratchObjectUtf8(name));
             a.add(ctx.getReadMarker());
         } else {
-            a.add(new ScratchObjectSymbol("readVariable"));
+            a.add(ScratchObjectPool.instance.symbol("readVariable"));
             a.add(new ScratchObjectUtf8(name));
         }
 
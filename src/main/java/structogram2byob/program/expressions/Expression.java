@@ -1,9 +1,12 @@
 package structogram2byob.program.expressions;
 
+import java.util.Set;
+
 import nsdlib.elements.NSDElement;
 import scratchlib.objects.ScratchObject;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.program.Linker;
 import structogram2byob.program.ScratchConversionException;
 import structogram2byob.program.VariableContext;
 import structogram2byob.program.VariableMap;
@@ -38,6 +41,19 @@ public abstract class Expression
      */
     public abstract ScratchType getType();
 
+    /**
+     * Resolves all block references in this expression once, so that
+     * serialization with the linker's registry needs no further lookups.
+     * Unresolved references are recorded with the linker. Does nothing by
+     * default.
+     *
+     * @param variables The names of all variables in scope.
+     * @param linker The linker.
+     */
+    public void link(Set<String> variables, Linker linker)
+    {
+    }
+
     /**
      * Converts this instance into a proper Scratch object, given a map of
      * variables and a block registry to distinguish ambiguous parts.
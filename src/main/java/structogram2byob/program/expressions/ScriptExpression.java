@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import nsdlib.elements.NSDElement;
@@ -11,6 +12,7 @@ import scratchlib.objects.ScratchObject;
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.program.Linker;
 import structogram2byob.program.ScratchConversionException;
 import structogram2byob.program.VariableMap;
 
@@ -57,6 +59,14 @@ public class ScriptExpression extends Expression
         return ScratchType.LOOP;
     }
 
+    @Override
+    public void link(Set<String> variables, Linker linker)
+    {
+        for (BlockExpression e : blocks) {
+            e.link(variables, linker);
+        }
+    }
+
     @Override
     public ScratchObject toScratch(VariableMap vars, BlockRegistry blocks) throws ScratchConversionException
     {
@@ -0,0 +1,357 @@
+package structogram2byob.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import nsdlib.reader.NSDReaderException;
+import scratchlib.project.ScratchProject;
+import scratchlib.writer.ScratchWriter;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.parser.nsd.NSDParser;
+import structogram2byob.parser.nsd.NSDParserException;
+import structogram2byob.parser.nsd.StructorizerStreamReader;
+import structogram2byob.program.Program;
+import structogram2byob.program.ScratchConversionException;
+import structogram2byob.server.CompileStats.Outcome;
+
+
+/**
+ * Long-lived local compile service, so that clients do not pay the JVM startup
+ * and warm-up for every compilation.
+ *
+ * <p>
+ * The service listens on the loopback interface only and has two endpoints:
+ *
+ * <ul>
+ * <li>{@code POST /compile} takes a Structorizer diagram as the request body
+ * and answers with the bytes of a BYOB project containing it as its only
+ * unit. Invalid diagrams are answered with 400 and the error message, bodies
+ * that exceed the size limit with 413, requests arriving while all workers and
+ * queue slots are taken with 503, and compilations exceeding the time limit
+ * with 504.
+ * <li>{@code GET /stats} answers with the counters of {@link CompileStats}.
+ * </ul>
+ *
+ * <p>
+ * Compilations run on a bounded pool of workers, all sharing one frozen block
+ * registry. Requests are read and answered on separate handler threads, so that
+ * the time limit can be enforced; a compilation that exceeds it is abandoned,
+ * but still occupies its worker until it finishes.
+ *
+ * <p>
+ * Compile requests are admitted before their body is read, and keep their slot
+ * until the compilation stops occupying a worker, so slow uploads count
+ * against the capacity instead of delaying the admission check. Requests
+ * arriving while all slots are taken are rejected right away. Every request
+ * has a handler thread of its own, so that slow clients, whether admitted or
+ * not, never keep other requests, including those for the stats, from being
+ * answered.
+ */
+public class CompileServer
+{
+    /**
+     * The default maximum size of a request body.
+     */
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The default maximum time a compilation may take.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    private static final String TYPE_PROJECT = "application/octet-stream";
+    private static final String TYPE_TEXT = "text/plain; charset=utf-8";
+
+    private final BlockRegistry blocks;
+    private final int maxRequestBytes;
+    private final long timeoutMillis;
+
+    private final CompileStats stats = new CompileStats();
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ThreadPoolExecutor workers;
+    private final Semaphore slots;
+
+    /**
+     * Creates a server listening on the given port of the loopback interface.
+     * The server has to be started with {@link #start()}.
+     *
+     * @param blocks The available blocks. Must be frozen, as it is shared by
+     *            all workers.
+     * @param port The port, or 0 to choose any free port.
+     * @param threads The number of compilations that run concurrently.
+     * @param queueCapacity The number of requests that may be admitted
+     *            beyond the number of workers, to upload their diagram or to
+     *            wait for a worker, before requests are rejected.
+     * @param maxRequestBytes The maximum size of a request body.
+     * @param timeoutMillis The maximum time a compilation may take.
+     *
+     * @throws IOException If the server cannot be bound.
+     */
+    public CompileServer(BlockRegistry blocks, int port, int threads, int queueCapacity, int maxRequestBytes,
+            long timeoutMillis) throws IOException
+    {
+        if (!blocks.isFrozen()) {
+            throw new IllegalArgumentException("registry must be frozen");
+        }
+
+        this.blocks = blocks;
+        this.maxRequestBytes = maxRequestBytes;
+        this.timeoutMillis = timeoutMillis;
+
+        // the queue is bounded by admission, which happens before the body is read
+        this.slots = new Semaphore(threads + queueCapacity);
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        // rejected requests may block their handler, too, while the server drains their body
+        this.handlers = Executors.newCachedThreadPool();
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/compile", this::handleCompile);
+        server.createContext("/stats", this::handleStats);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, and shuts down all threads once the current
+     * requests are answered.
+     */
+    public void stop()
+    {
+        server.stop(0);
+        handlers.shutdown();
+        workers.shutdown();
+    }
+
+    /**
+     * @return The port this server listens on.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The request counters.
+     */
+    public CompileStats getStats()
+    {
+        return stats;
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException
+    {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, TYPE_TEXT, text("method not allowed"));
+                return;
+            }
+            respond(exchange, 200, TYPE_TEXT, text(stats.format()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleCompile(HttpExchange exchange) throws IOException
+    {
+        long start = System.nanoTime();
+        try {
+            Response response = compile(exchange);
+            // record before answering, so that clients see their own requests in the stats
+            stats.record(response.outcome, System.nanoTime() - start);
+            respond(exchange, response.status, response.type, response.body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response compile(HttpExchange exchange) throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            return Response.text(Outcome.FAILED, 405, "method not allowed");
+        }
+
+        // admit before reading, so that uploads in progress count against the capacity
+        if (!slots.tryAcquire()) {
+            return Response.text(Outcome.REJECTED, 503, "server busy");
+        }
+
+        // whoever sets this releases the slot: the compilation, or the handler cancelling it before it starts
+        AtomicBoolean started = new AtomicBoolean();
+        Future<byte[]> result;
+        boolean submitted = false;
+        try {
+            byte[] body = readBody(exchange);
+            if (body == null) {
+                return Response.text(Outcome.FAILED, 413, "request body exceeds " + maxRequestBytes + " bytes");
+            }
+            result = workers.submit(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return compile(body);
+                } finally {
+                    slots.release();
+                }
+            });
+            submitted = true;
+        } catch (RejectedExecutionException e) {
+            return Response.text(Outcome.REJECTED, 503, "server stopping");
+        } finally {
+            if (!submitted) {
+                slots.release();
+            }
+        }
+
+        try {
+            return new Response(Outcome.SUCCEEDED, 200, TYPE_PROJECT,
+                    result.get(timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            if (started.compareAndSet(false, true)) {
+                slots.release();
+            }
+            result.cancel(true);
+            return Response.text(Outcome.TIMED_OUT, 504, "compilation exceeded " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                return Response.text(Outcome.FAILED, 500, "internal error: " + e.getCause());
+            }
+            return Response.text(Outcome.FAILED, 400, describe(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.text(Outcome.FAILED, 503, "server stopping");
+        }
+    }
+
+    /**
+     * Reads the request body, up to the size limit.
+     *
+     * @return The body, or null if it exceeds the limit.
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException
+    {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length) > maxRequestBytes) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // rely on the actual body size
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (bytes.size() + n > maxRequestBytes) {
+                    return null;
+                }
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Compiles the given diagram into a project containing it as its only
+     * unit, and returns the project file's contents.
+     */
+    private byte[] compile(byte[] diagram)
+            throws IOException, NSDReaderException, NSDParserException, ScratchConversionException
+    {
+        Program program = new Program();
+        program.addUnit(new NSDParser(new StructorizerStreamReader().read(new ByteArrayInputStream(diagram))).parse());
+        ScratchProject project = program.toScratch(blocks);
+
+        // the writer only supports files
+        Path tmp = Files.createTempFile("structogram2byob", ".ypr");
+        try {
+            new ScratchWriter(tmp.toFile()).write(project);
+            return Files.readAllBytes(tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static String describe(Throwable e)
+    {
+        if (e.getMessage() != null) {
+            return e.getMessage();
+        }
+        return e.getCause() != null ? e.getCause().toString() : e.getClass().getSimpleName();
+    }
+
+    private static byte[] text(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, byte[] body) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        // a length of 0 would announce a chunked body
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * A response to a compile request, together with its outcome.
+     */
+    private static class Response
+    {
+        private final Outcome outcome;
+        private final int status;
+        private final String type;
+        private final byte[] body;
+
+        private Response(Outcome outcome, int status, String type, byte[] body)
+        {
+            this.outcome = outcome;
+            this.status = status;
+            this.type = type;
+            this.body = body;
+        }
+
+        private static Response text(Outcome outcome, int status, String message)
+        {
+            return new Response(outcome, status, TYPE_TEXT, CompileServer.text(message));
+        }
+    }
+}
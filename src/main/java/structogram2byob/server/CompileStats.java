@@ -0,0 +1,120 @@
+package structogram2byob.server;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Request counters of a {@link CompileServer}. This class is thread-safe; all
+ * counters are updated without locking.
+ */
+public class CompileStats
+{
+    /**
+     * The outcome of a compile request.
+     */
+    public enum Outcome
+    {
+        /**
+         * The project was compiled and returned.
+         */
+        SUCCEEDED,
+        /**
+         * The request was invalid, or the diagram could not be compiled.
+         */
+        FAILED,
+        /**
+         * The request was rejected because all workers were busy.
+         */
+        REJECTED,
+        /**
+         * The compilation exceeded the time limit.
+         */
+        TIMED_OUT,
+    }
+
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder[] counts = new LongAdder[Outcome.values().length];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs zeroed counters.
+     */
+    public CompileStats()
+    {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a finished request.
+     *
+     * @param outcome The outcome.
+     * @param nanos The time taken to answer the request, in nanoseconds.
+     */
+    public void record(Outcome outcome, long nanos)
+    {
+        counts[outcome.ordinal()].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @param outcome The outcome.
+     * @return The number of requests with the given outcome.
+     */
+    public long getCount(Outcome outcome)
+    {
+        return counts[outcome.ordinal()].sum();
+    }
+
+    /**
+     * @return The total number of requests recorded.
+     */
+    public long getRequests()
+    {
+        long sum = 0;
+        for (LongAdder count : counts) {
+            sum += count.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Formats the counters as tab-separated name/value lines: the count per
+     * outcome, the mean and maximum latency in milliseconds, the uptime in
+     * seconds and the throughput in requests per second.
+     *
+     * @return The formatted counters.
+     */
+    public String format()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        long requests = getRequests();
+        append(sb, "requests", Long.toString(requests));
+        for (Outcome outcome : Outcome.values()) {
+            append(sb, outcome.name().toLowerCase(Locale.ROOT), Long.toString(getCount(outcome)));
+        }
+
+        double meanMillis = requests == 0 ? 0 : totalNanos.sum() / 1e6 / requests;
+        append(sb, "latency_mean_ms", String.format(Locale.ROOT, "%.3f", meanMillis));
+        append(sb, "latency_max_ms", String.format(Locale.ROOT, "%.3f", maxNanos.get() / 1e6));
+
+        double uptime = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        append(sb, "uptime_s", String.format(Locale.ROOT, "%.3f", uptime));
+        append(sb, "throughput_per_s", String.format(Locale.ROOT, "%.3f", uptime == 0 ? 0 : requests / uptime));
+
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String name, String value)
+    {
+        sb.append(name).append('\t').append(value).append('\n');
+    }
+}
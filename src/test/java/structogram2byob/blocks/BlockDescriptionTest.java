@@ -208,6 +208,57 @@ public class BlockDescriptionTest
         assertNotEquals(obj1, obj5);
     }
 
+    @Test
+    public void internsEqualDescriptions()
+    {
+        BlockDescription obj1 = new BlockDescription.Builder().label(new String("foo"))
+                .param(ScratchType.ANY, "testparam").paramList(ScratchType.NUMBER).build();
+        BlockDescription obj2 = new BlockDescription.Builder().label(new String("foo"))
+                .param(ScratchType.ANY, "testparam").paramList(ScratchType.NUMBER).build();
+
+        // building alone does not intern
+        assertNotSame(obj1, obj2);
+        assertEquals(obj1, obj2);
+
+        assertSame(obj1.intern(), obj2.intern());
+        assertSame(obj1.intern(), obj1.toBuilder().build().intern());
+        assertSame("foo", obj1.intern().getLabel(0));
+
+        assertNotSame(obj1.intern(), obj1.toBuilder().label("bar").build().intern());
+    }
+
+    @Test
+    public void blocksInternTheirDescriptions()
+    {
+        BlockDescription desc = new BlockDescription.Builder().label(new String("foo")).build();
+        Block block = new FunctionBlock(desc, ScratchType.ANY, "foo");
+
+        assertEquals(desc, block.getDescription());
+        assertSame(desc.intern(), block.getDescription());
+    }
+
+    @Test
+    public void roundTripsPartsThroughBuilder()
+    {
+        BlockDescription.Builder builder = new BlockDescription.Builder();
+        for (int i = 0; i < 20; ++i) {
+            builder.label("l" + i).param(ScratchType.values()[i % ScratchType.values().length], "p" + i);
+        }
+        BlockDescription obj = builder.paramList(ScratchType.BOOLEAN).build();
+
+        assertEquals(41, obj.countParts());
+        for (int i = 0; i < 20; ++i) {
+            assertFalse(obj.isParameter(2 * i));
+            assertEquals("l" + i, obj.getLabel(2 * i));
+            assertTrue(obj.isParameter(2 * i + 1));
+            assertEquals("p" + i, obj.getLabel(2 * i + 1));
+            assertEquals(ScratchType.values()[i % ScratchType.values().length], obj.getType(2 * i + 1));
+            assertFalse(obj.isList(2 * i + 1));
+        }
+        assertTrue(obj.isList(40));
+        assertEquals(ScratchType.BOOLEAN, obj.getType(40));
+    }
+
     @Test
     public void convertsToString()
     {
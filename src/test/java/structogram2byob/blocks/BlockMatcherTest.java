@@ -0,0 +1,126 @@
+package structogram2byob.blocks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import structogram2byob.ScratchType;
+import structogram2byob.program.VariableMap;
+import structogram2byob.program.expressions.Expression;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class BlockMatcherTest
+{
+    private static class MockBlock extends Block
+    {
+        public MockBlock(BlockDescription desc)
+        {
+            super(desc, null);
+        }
+
+        @Override
+        public ScratchObjectArray toScratch(List<Expression> params, VariableMap vars, BlockRegistry blocks)
+        {
+            return null;
+        }
+    }
+
+    @Test
+    public void matchesLabelsAndParameters()
+    {
+        Block move = new MockBlock(new BlockDescription.Builder()
+                .label("move").param(ScratchType.NUMBER).label("steps").build());
+        Block say = new MockBlock(new BlockDescription.Builder().label("say").param(ScratchType.ANY).build());
+
+        BlockMatcher obj = new BlockMatcher(Arrays.asList(move, say));
+
+        assertSame(move, obj.match(new BlockDescription.Builder()
+                .label("move").param(ScratchType.ANY).label("steps").build()));
+        assertSame(say, obj.match(new BlockDescription.Builder().label("say").param(ScratchType.TEXT).build()));
+
+        assertNull(obj.match(new BlockDescription.Builder()
+                .label("move").param(ScratchType.TEXT).label("steps").build()));
+        assertNull(obj.match(new BlockDescription.Builder().label("say").build()));
+        assertNull(obj.match(new BlockDescription.Builder().label("say").param(ScratchType.ANY)
+                .param(ScratchType.ANY).build()));
+    }
+
+    @Test
+    public void matchesListParameters()
+    {
+        Block list = new MockBlock(new BlockDescription.Builder()
+                .label("list").paramList(ScratchType.NUMBER).label("end").build());
+
+        BlockMatcher obj = new BlockMatcher(Collections.singletonList(list));
+
+        assertSame(list, obj.match(new BlockDescription.Builder().label("list").label("end").build()));
+        assertSame(list, obj.match(new BlockDescription.Builder().label("list").param(ScratchType.NUMBER)
+                .param(ScratchType.ANY).label("end").build()));
+        assertNull(obj.match(new BlockDescription.Builder().label("list").param(ScratchType.TEXT)
+                .label("end").build()));
+    }
+
+    @Test
+    public void consumesListParametersGreedily()
+    {
+        BlockDescription desc = new BlockDescription.Builder()
+                .label("foo").paramList(ScratchType.NUMBER).param(ScratchType.NUMBER).build();
+        BlockMatcher obj = new BlockMatcher(Collections.singletonList(new MockBlock(desc)));
+
+        BlockDescription query = new BlockDescription.Builder()
+                .label("foo").param(ScratchType.NUMBER).param(ScratchType.NUMBER).build();
+
+        // the list swallows both parameters, as with isAssignableFrom
+        assertFalse(desc.isAssignableFrom(query));
+        assertNull(obj.match(query));
+    }
+
+    @Test
+    public void agreesWithIsAssignableFrom()
+    {
+        List<BlockDescription> descs = Arrays.asList(
+                new BlockDescription.Builder().build(),
+                new BlockDescription.Builder().label("a").build(),
+                new BlockDescription.Builder().paramList(ScratchType.ANY).build(),
+                new BlockDescription.Builder().label("a").paramList(ScratchType.TEXT).build(),
+                new BlockDescription.Builder().paramList(ScratchType.NUMBER).label("a").build(),
+                new BlockDescription.Builder().paramList(ScratchType.NUMBER).paramList(ScratchType.TEXT).build(),
+                new BlockDescription.Builder().param(ScratchType.TEXT).label("a").param(ScratchType.ANY).build()
+        );
+
+        List<BlockDescription> queries = Arrays.asList(
+                new BlockDescription.Builder().build(),
+                new BlockDescription.Builder().label("a").build(),
+                new BlockDescription.Builder().param(ScratchType.TEXT).build(),
+                new BlockDescription.Builder().label("a").param(ScratchType.TEXT).param(ScratchType.ANY).build(),
+                new BlockDescription.Builder().param(ScratchType.NUMBER).label("a").build(),
+                new BlockDescription.Builder().param(ScratchType.NUMBER).param(ScratchType.TEXT).build(),
+                new BlockDescription.Builder().param(ScratchType.TEXT).label("a").param(ScratchType.LOOP).build()
+        );
+
+        for (BlockDescription desc : descs) {
+            BlockMatcher obj = new BlockMatcher(Collections.singletonList(new MockBlock(desc)));
+            for (BlockDescription query : queries) {
+                assertEquals(desc.isAssignableFrom(query), obj.match(query) != null, desc + " <- " + query);
+            }
+        }
+    }
+
+    @Test
+    public void prefersEarlierBlocks()
+    {
+        Block number = new MockBlock(new BlockDescription.Builder()
+                .label("set").param(ScratchType.NUMBER).build());
+        Block color = new MockBlock(new BlockDescription.Builder()
+                .label("set").param(ScratchType.COLOR).build());
+
+        BlockDescription query = new BlockDescription.Builder().label("set").param(ScratchType.ANY).build();
+
+        assertSame(number, new BlockMatcher(Arrays.asList(number, color)).match(query));
+        assertSame(color, new BlockMatcher(Arrays.asList(color, number)).match(query));
+    }
+}
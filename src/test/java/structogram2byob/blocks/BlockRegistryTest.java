@@ -1,6 +1,10 @@
 package structogram2byob.blocks;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.Test;
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
@@ -71,4 +75,275 @@ public class BlockRegistryTest
         Block lookup = obj.lookup(new BlockDescription.Builder().label("foo").param(ScratchType.NUMBER).build());
         assertSame(block, lookup);
     }
+
+    @Test
+    public void looksUpVariadicBlocks()
+    {
+        BlockRegistry obj = new BlockRegistry();
+
+        Block fixed = new MockBlock(new BlockDescription.Builder().label("foo").param(ScratchType.ANY).build(),
+                null);
+        obj.register(fixed);
+        Block variadic = new MockBlock(new BlockDescription.Builder().label("foo").paramList(ScratchType.NUMBER)
+                .build(), null);
+        obj.register(variadic);
+
+        assertSame(fixed, obj.lookup(new BlockDescription.Builder().label("foo").param(ScratchType.TEXT).build()));
+        assertSame(variadic, obj.lookup(new BlockDescription.Builder().label("foo")
+                .param(ScratchType.NUMBER).param(ScratchType.NUMBER).build()));
+        assertNull(obj.lookup(new BlockDescription.Builder().label("foo")
+                .param(ScratchType.TEXT).param(ScratchType.TEXT).build()));
+    }
+
+    @Test
+    public void looksUpBlocksRegisteredAfterLookup()
+    {
+        BlockRegistry obj = new BlockRegistry();
+
+        BlockDescription desc = new BlockDescription.Builder().label("foo").param(ScratchType.NUMBER).build();
+        assertNull(obj.lookup(desc));
+
+        Block block = new MockBlock(new BlockDescription.Builder().label("foo").param(ScratchType.ANY).build(),
+                null);
+        obj.register(block);
+
+        assertSame(block, obj.lookup(desc));
+    }
+
+    @Test
+    public void cachesLookups()
+    {
+        BlockRegistry obj = new BlockRegistry();
+        obj.setCacheCapacity(16);
+
+        Block block = new MockBlock(new BlockDescription.Builder().label("foo").param(ScratchType.ANY).build(),
+                null);
+        obj.register(block);
+
+        BlockDescription desc = new BlockDescription.Builder().label("foo").param(ScratchType.NUMBER).build();
+        BlockDescription unknown = new BlockDescription.Builder().label("bar").build();
+
+        assertSame(block, obj.lookup(desc));
+        assertNull(obj.lookup(unknown));
+        assertEquals(0, obj.getCacheHits());
+        assertEquals(2, obj.getCacheMisses());
+
+        assertSame(block, obj.lookup(new BlockDescription.Builder().label("foo").param(ScratchType.NUMBER).build()));
+        assertNull(obj.lookup(unknown));
+        assertEquals(2, obj.getCacheHits());
+        assertEquals(2, obj.getCacheMisses());
+    }
+
+    @Test
+    public void invalidatesCacheOnRegister()
+    {
+        BlockRegistry base = new BlockRegistry();
+        base.setCacheCapacity(16);
+        BlockRegistry obj = new BlockRegistry(base);
+
+        BlockDescription desc = new BlockDescription.Builder().label("foo").build();
+        assertNull(obj.lookup(desc));
+
+        Block block = new MockBlock(desc, null);
+        base.register(block);
+
+        assertSame(block, base.lookup(desc));
+        assertSame(block, obj.lookup(desc));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed()
+    {
+        BlockRegistry obj = new BlockRegistry();
+        obj.setCacheCapacity(2);
+
+        BlockDescription a = new BlockDescription.Builder().label("a").build();
+        BlockDescription b = new BlockDescription.Builder().label("b").build();
+        BlockDescription c = new BlockDescription.Builder().label("c").build();
+
+        obj.lookup(a);
+        obj.lookup(b);
+        obj.lookup(a);
+        obj.lookup(c);
+        assertEquals(1, obj.getCacheHits());
+
+        obj.lookup(a);
+        assertEquals(2, obj.getCacheHits());
+        obj.lookup(b);
+        assertEquals(2, obj.getCacheHits());
+    }
+
+    @Test
+    public void doesNotLeakDerivedEntriesIntoBase()
+    {
+        BlockRegistry base = new BlockRegistry();
+        base.setCacheCapacity(16);
+
+        BlockRegistry obj = new BlockRegistry(base);
+        assertEquals(16, obj.getCacheCapacity());
+
+        BlockDescription desc = new BlockDescription.Builder().label("custom").build();
+        Block block = new MockBlock(desc, null);
+        obj.register(block);
+
+        assertSame(block, obj.lookup(desc));
+        assertSame(block, obj.lookup(desc));
+        assertNull(base.lookup(desc));
+    }
+
+    @Test
+    public void freezesIntoSnapshot()
+    {
+        BlockRegistry base = new BlockRegistry();
+        Block foo = new MockBlock(new BlockDescription.Builder().label("foo").build(), null);
+        base.register(foo);
+
+        BlockRegistry source = new BlockRegistry(base);
+        source.setCacheCapacity(16);
+        Block bar = new MockBlock(new BlockDescription.Builder().label("bar").build(), null);
+        source.register(bar);
+
+        BlockRegistry obj = source.freeze();
+        assertTrue(obj.isFrozen());
+        assertFalse(source.isFrozen());
+        assertSame(obj, obj.freeze());
+        assertEquals(16, obj.getCacheCapacity());
+
+        assertSame(foo, obj.lookup(foo.getDescription()));
+        assertSame(bar, obj.lookup(bar.getDescription()));
+
+        // later changes to the source do not affect the snapshot
+        BlockDescription bazDesc = new BlockDescription.Builder().label("baz").build();
+        source.register(new MockBlock(bazDesc, null));
+        base.register(new MockBlock(new BlockDescription.Builder().label("qux").build(), null));
+
+        assertNull(obj.lookup(bazDesc));
+        assertNull(obj.lookup(new BlockDescription.Builder().label("qux").build()));
+    }
+
+    @Test
+    public void rejectsChangesWhenFrozen()
+    {
+        BlockRegistry obj = new BlockRegistry().freeze();
+
+        assertThrows(IllegalStateException.class, () -> {
+            obj.register(new MockBlock(new BlockDescription.Builder().label("foo").build(), null));
+        });
+        assertThrows(IllegalStateException.class, () -> obj.setCacheCapacity(16));
+    }
+
+    @Test
+    public void unregistersBlocks()
+    {
+        BlockRegistry base = new BlockRegistry();
+        Block foo = new MockBlock(new BlockDescription.Builder().label("foo").build(), null);
+        base.register(foo);
+
+        BlockRegistry obj = new BlockRegistry(base);
+        obj.setCacheCapacity(16);
+        Block bar = new MockBlock(new BlockDescription.Builder().label("bar").build(), null);
+        obj.register(bar);
+        assertSame(bar, obj.lookup(bar.getDescription()));
+
+        obj.unregister(bar);
+        assertNull(obj.lookup(bar.getDescription()));
+        assertSame(foo, obj.lookup(foo.getDescription()));
+
+        assertThrows(IllegalArgumentException.class, () -> obj.unregister(bar));
+        assertThrows(IllegalArgumentException.class, () -> obj.unregister(foo));
+        assertThrows(IllegalStateException.class, () -> base.freeze().unregister(foo));
+    }
+
+    @Test
+    public void replacesBlocksInPlace()
+    {
+        BlockDescription lookup = new BlockDescription.Builder().label("foo").param(ScratchType.NUMBER).build();
+        Block any = new MockBlock(new BlockDescription.Builder().label("foo").param(ScratchType.ANY).build(), null);
+        Block number = new MockBlock(lookup, null);
+
+        BlockRegistry obj = new BlockRegistry(new BlockRegistry());
+        obj.register(any);
+        obj.register(number);
+
+        Block replacement = new MockBlock(any.getDescription(), ScratchType.NUMBER);
+        obj.replace(any, replacement);
+        assertSame(replacement, obj.lookup(lookup));
+
+        assertThrows(IllegalArgumentException.class, () -> obj.replace(any, replacement));
+        assertThrows(IllegalArgumentException.class, () -> obj.replace(replacement, number));
+    }
+
+    @Test
+    public void resolvesOverlayAmbiguitiesInRegistrationOrder()
+    {
+        BlockDescription lookup = new BlockDescription.Builder().label("foo").param(ScratchType.NUMBER).build();
+        Block any = new MockBlock(new BlockDescription.Builder().label("foo").param(ScratchType.ANY).build(), null);
+        Block number = new MockBlock(lookup, null);
+
+        BlockRegistry obj = new BlockRegistry(new BlockRegistry());
+        obj.register(any);
+        obj.register(number);
+        assertSame(any, obj.lookup(lookup));
+
+        obj.unregister(any);
+        obj.register(any);
+        assertSame(number, obj.lookup(lookup));
+    }
+
+    @Test
+    public void overlaysFrozenRegistry()
+    {
+        BlockRegistry source = new BlockRegistry();
+        source.setCacheCapacity(16);
+        Block foo = new MockBlock(new BlockDescription.Builder().label("foo").build(), null);
+        source.register(foo);
+        BlockRegistry base = source.freeze();
+
+        BlockRegistry obj = new BlockRegistry(base);
+        assertFalse(obj.isFrozen());
+        assertEquals(16, obj.getCacheCapacity());
+
+        Block custom = new MockBlock(new BlockDescription.Builder().label("custom").build(), null);
+        obj.register(custom);
+
+        assertSame(foo, obj.lookup(foo.getDescription()));
+        assertSame(custom, obj.lookup(custom.getDescription()));
+        assertNull(base.lookup(custom.getDescription()));
+    }
+
+    @Test
+    public void looksUpConcurrentlyWhenFrozen() throws Exception
+    {
+        BlockRegistry source = new BlockRegistry();
+        List<Block> registered = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            Block block = new MockBlock(new BlockDescription.Builder().label("foo" + i)
+                    .param(ScratchType.NUMBER).build(), null);
+            source.register(block);
+            registered.add(block);
+        }
+        BlockRegistry obj = source.freeze();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                results.add(executor.submit(() -> {
+                    for (Block block : registered) {
+                        BlockDescription query = new BlockDescription.Builder()
+                                .label(block.getDescription().getLabel(0)).param(ScratchType.ANY).build();
+                        if (obj.lookup(query) != block) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package structogram2byob.blocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import structogram2byob.ScratchType;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+
+public class BuiltinBlocksGeneratorTest
+{
+    @Test
+    public void generatedTableMatchesTextRegistry() throws ReflectiveOperationException, IOException,
+            BlockRegistryReaderException
+    {
+        Class<?> table;
+        try {
+            table = Class.forName(BuiltinBlocksGenerator.CLASS_NAME);
+        } catch (ClassNotFoundException e) {
+            table = null;
+        }
+        assumeTrue(table != null, "block table not generated");
+
+        List<FunctionBlock> expected;
+        try (BlockRegistryReader r = new BlockRegistryReader(getClass().getResourceAsStream("/functions.txt"))) {
+            expected = r.readBlocks();
+        }
+
+        List<?> actual = (List<?>) table.getMethod("createBlocks").invoke(null);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            FunctionBlock e = expected.get(i), a = (FunctionBlock) actual.get(i);
+            assertSame(e.getDescription(), a.getDescription());
+            for (int j = 0; j < e.getDescription().countParts(); ++j) {
+                assertEquals(e.getDescription().getLabel(j), a.getDescription().getLabel(j));
+            }
+            assertSame(e.getReturnType(), a.getReturnType());
+            assertEquals(e.getMethod(), a.getMethod());
+        }
+    }
+
+    @Test
+    public void generatesBlockConstruction() throws IOException
+    {
+        BlockDescription desc = new BlockDescription.Builder().label("say \"hi\"\\")
+                .paramList(ScratchType.NUMBER, "n").param(ScratchType.ANY).label("\u00e4").build();
+
+        StringBuilder sb = new StringBuilder();
+        new BuiltinBlocksGenerator(sb).generate(Collections.singletonList(
+                new FunctionBlock(desc, ScratchType.BOOLEAN, "say:")));
+
+        assertTrue(sb.toString().contains("blocks.add(new FunctionBlock(new BlockDescription.Builder()"
+                + ".label(\"say \\\"hi\\\"\\\\\").paramList(ScratchType.NUMBER, \"n\").param(ScratchType.ANY)"
+                + ".label(\"\\u00e4\").build(), ScratchType.BOOLEAN, \"say:\"));"));
+        assertTrue(sb.toString().startsWith("package structogram2byob.blocks;\n"));
+    }
+
+    @Test
+    public void escapesControlCharacters(@TempDir Path tmp) throws IOException
+    {
+        BlockDescription desc = new BlockDescription.Builder().label("a\nb\rc\td\u0001e\u001f").build();
+
+        StringBuilder sb = new StringBuilder();
+        new BuiltinBlocksGenerator(sb).generate(Collections.singletonList(new FunctionBlock(desc, null, "x")));
+
+        String literal = "\"a\\nb\\rc\\td\\001e\\037\"";
+        assertTrue(sb.toString().contains(".label(" + literal + ")"));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue(compiler != null, "no compiler available");
+
+        Path source = tmp.resolve("Literal.java");
+        Files.write(source, ("class Literal { String s = " + literal + "; }\n").getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(0, compiler.run(null, null, err, "-d", tmp.toString(), source.toString()), err.toString());
+    }
+}
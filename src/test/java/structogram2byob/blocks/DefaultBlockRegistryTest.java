@@ -0,0 +1,59 @@
+package structogram2byob.blocks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import structogram2byob.ScratchType;
+import structogram2byob.blocks.hats.StartClickedHatBlock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class DefaultBlockRegistryTest
+{
+    private static final BlockDescription MOVE = new BlockDescription.Builder()
+            .label("move").param(ScratchType.NUMBER).label("steps").build();
+
+    private static final BlockDescription FOO = new BlockDescription.Builder()
+            .label("foo").param(ScratchType.ANY).build();
+
+    @Test
+    public void loadsPackagedBlocks() throws IOException, BlockRegistryReaderException
+    {
+        BlockRegistry obj = DefaultBlockRegistry.load();
+
+        assertTrue(obj.isFrozen());
+        assertNotNull(obj.lookup(MOVE));
+        assertSame(StartClickedHatBlock.instance, obj.lookup(StartClickedHatBlock.instance.getDescription()));
+    }
+
+    @Test
+    public void parsesUserLibraries(@TempDir Path tmp) throws IOException, BlockRegistryReaderException
+    {
+        Path library = tmp.resolve("blocks.txt");
+        Files.write(library, Arrays.asList("foo (any)", "none", "doFoo"), StandardCharsets.UTF_8);
+
+        BlockRegistry obj = DefaultBlockRegistry.load(library);
+
+        assertTrue(obj.isFrozen());
+        assertEquals("doFoo", ((FunctionBlock) obj.lookup(FOO)).getMethod());
+        // replaces the packaged function blocks, but keeps the special ones
+        assertNull(obj.lookup(MOVE));
+        assertSame(StartClickedHatBlock.instance, obj.lookup(StartClickedHatBlock.instance.getDescription()));
+    }
+
+    @Test
+    public void rejectsMalformedUserLibraries(@TempDir Path tmp) throws IOException
+    {
+        Path library = tmp.resolve("blocks.txt");
+        Files.write(library, Arrays.asList("foo (any)", "none"), StandardCharsets.UTF_8);
+
+        assertThrows(BlockRegistryReaderException.class, () -> DefaultBlockRegistry.load(library));
+        assertThrows(IOException.class, () -> DefaultBlockRegistry.load(tmp.resolve("missing.txt")));
+    }
+}
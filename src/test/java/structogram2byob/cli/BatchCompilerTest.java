@@ -0,0 +1,158 @@
+package structogram2byob.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import structogram2byob.blocks.BlockRegistry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class BatchCompilerTest
+{
+    private static final Path TEST_UNIT = Paths.get("src/test/resources/testunit.nsd");
+
+    private static Path copyUnit(Path dir, String name) throws IOException
+    {
+        Files.createDirectories(dir);
+        return Files.copy(TEST_UNIT, dir.resolve(name));
+    }
+
+    @Test
+    public void findsProjectsPerDirectory(@TempDir Path tmp) throws IOException
+    {
+        Path classDir = tmp.resolve("class");
+        copyUnit(classDir.resolve("bob"), "b.nsd");
+        copyUnit(classDir.resolve("alice"), "a2.nsd");
+        copyUnit(classDir.resolve("alice"), "a1.nsd");
+        Files.createDirectories(classDir.resolve("empty"));
+        Path single = copyUnit(tmp, "single.nsd");
+
+        List<BatchCompiler.Project> projects = BatchCompiler.findProjects(Arrays.asList(classDir, single));
+
+        assertEquals(3, projects.size());
+
+        assertEquals(Arrays.asList(classDir.resolve("alice/a1.nsd").toFile(), classDir.resolve("alice/a2.nsd").toFile()),
+                projects.get(0).getDiagrams());
+        assertEquals(classDir.resolve("alice.ypr").toAbsolutePath().toFile(), projects.get(0).getOutput());
+
+        assertEquals(Collections.singletonList(classDir.resolve("bob/b.nsd").toFile()), projects.get(1).getDiagrams());
+
+        assertEquals(Collections.singletonList(single.toFile()), projects.get(2).getDiagrams());
+        assertEquals(tmp.resolve("single.ypr").toFile(), projects.get(2).getOutput());
+    }
+
+    @Test
+    public void throwsForMissingPaths(@TempDir Path tmp)
+    {
+        assertThrows(IOException.class,
+                () -> BatchCompiler.findProjects(Collections.singletonList(tmp.resolve("missing.nsd"))));
+    }
+
+    @Test
+    public void compilesProjectsAndReportsFailures(@TempDir Path tmp) throws IOException
+    {
+        copyUnit(tmp.resolve("good"), "a.nsd");
+        // defines the same block twice
+        copyUnit(tmp.resolve("bad"), "a.nsd");
+        copyUnit(tmp.resolve("bad"), "b.nsd");
+
+        List<BatchCompiler.Project> projects = BatchCompiler.findProjects(Collections.singletonList(tmp));
+        BatchCompiler obj = new BatchCompiler(new BlockRegistry().freeze(), 2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<BatchCompiler.Result> results = obj.compile(projects, new PrintStream(bytes, true));
+
+        assertEquals(2, results.size());
+
+        assertFalse(results.get(0).isSuccess());
+        assertNotNull(results.get(0).getMessage());
+        assertFalse(Files.exists(tmp.resolve("bad.ypr")));
+
+        assertTrue(results.get(1).isSuccess());
+        assertTrue(Files.isRegularFile(tmp.resolve("good.ypr")));
+
+        String[] lines = bytes.toString().split("\\R");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("failed\t"));
+        assertTrue(lines[1].startsWith("ok\t"));
+        assertTrue(lines[2].startsWith("total\t"));
+        assertTrue(lines[2].endsWith("\t2\t1 failed"));
+        for (String line : lines) {
+            assertEquals(4, line.split("\t").length);
+        }
+    }
+
+    @Test
+    public void copiesUnchangedProjectsFromCache(@TempDir Path tmp) throws IOException
+    {
+        Path diagram = copyUnit(tmp.resolve("src"), "a.nsd");
+        List<BatchCompiler.Project> projects = BatchCompiler.findProjects(Collections.singletonList(diagram));
+        BlockRegistry blocks = new BlockRegistry().freeze();
+
+        BatchCompiler obj = new BatchCompiler(blocks, 1);
+        obj.setCache(new CompileCache(tmp.resolve("cache"), blocks, CompileCache.DEFAULT_MAX_BYTES));
+
+        assertFalse(obj.compile(projects, null).get(0).isCached());
+        byte[] compiled = Files.readAllBytes(tmp.resolve("src/a.ypr"));
+        Files.delete(tmp.resolve("src/a.ypr"));
+
+        // a new compiler, as in the next run
+        obj = new BatchCompiler(blocks, 1);
+        obj.setCache(new CompileCache(tmp.resolve("cache"), blocks, CompileCache.DEFAULT_MAX_BYTES));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BatchCompiler.Result result = obj.compile(projects, new PrintStream(bytes, true)).get(0);
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.isCached());
+        assertArrayEquals(compiled, Files.readAllBytes(tmp.resolve("src/a.ypr")));
+        assertTrue(bytes.toString().startsWith("cached\t"));
+
+        // changed diagrams are compiled again
+        Files.write(diagram, " ".getBytes(), StandardOpenOption.APPEND);
+        assertFalse(obj.compile(projects, null).get(0).isCached());
+    }
+
+    @Test
+    public void rejectsUnfrozenRegistry()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new BatchCompiler(new BlockRegistry(), 1));
+    }
+
+    @Test
+    public void rejectsInvalidArguments()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        assertEquals(2, BatchCompiler.run(new String[] { "-j", "0", "foo.nsd" }, new PrintStream(out),
+                new PrintStream(err)));
+        assertEquals(2, BatchCompiler.run(new String[] { "--unknown" }, new PrintStream(out), new PrintStream(err)));
+        assertEquals(0, out.size());
+        assertTrue(err.toString().startsWith("usage:"));
+    }
+
+    @Test
+    public void reportsMissingBlockLibraries(@TempDir Path tmp) throws IOException
+    {
+        copyUnit(tmp, "a.nsd");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        String[] args = { "-b", tmp.resolve("missing.txt").toString(), tmp.toString() };
+        assertEquals(2, BatchCompiler.run(args, new PrintStream(out), new PrintStream(err)));
+        assertEquals(0, out.size());
+        assertTrue(err.toString().startsWith("error:"));
+    }
+}
@@ -0,0 +1,190 @@
+package structogram2byob.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import structogram2byob.ScratchType;
+import structogram2byob.blocks.BlockDescription;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.blocks.FunctionBlock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class CompileCacheTest
+{
+    private static BlockRegistry registry(String method)
+    {
+        BlockRegistry blocks = new BlockRegistry();
+        blocks.register(new FunctionBlock(new BlockDescription.Builder().label("foo").build(), ScratchType.ANY,
+                method));
+        return blocks.freeze();
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes();
+    }
+
+    private static long countEntries(Path dir) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(p -> p.toString().endsWith(".ypr")).count();
+        }
+    }
+
+    @Test
+    public void storesAndRetrievesProjects(@TempDir Path tmp) throws IOException
+    {
+        CompileCache obj = new CompileCache(tmp, registry("doForever"), 1024);
+
+        String key = obj.key(Arrays.asList(bytes("a"), bytes("b")));
+        assertNull(obj.get(key));
+
+        obj.put(key, bytes("project"));
+        assertArrayEquals(bytes("project"), obj.get(key));
+        assertEquals(1, obj.getHits());
+        assertEquals(1, obj.getMisses());
+
+        // persists across instances
+        CompileCache other = new CompileCache(tmp, registry("doForever"), 1024);
+        assertArrayEquals(bytes("project"), other.get(key));
+        assertEquals(7, other.getSize());
+    }
+
+    @Test
+    public void keysDependOnContentsAndOrder(@TempDir Path tmp) throws IOException
+    {
+        CompileCache obj = new CompileCache(tmp, registry("doForever"), 1024);
+
+        String key = obj.key(Arrays.asList(bytes("a"), bytes("b")));
+        assertEquals(key, obj.key(Arrays.asList(bytes("a"), bytes("b"))));
+        assertNotEquals(key, obj.key(Arrays.asList(bytes("b"), bytes("a"))));
+        assertNotEquals(key, obj.key(Arrays.asList(bytes("ab"))));
+        assertNotEquals(key, obj.key(Arrays.asList(bytes("a"), bytes("c"))));
+    }
+
+    @Test
+    public void fingerprintsAllBlocks()
+    {
+        assertEquals(CompileCache.fingerprint(registry("doForever")),
+                CompileCache.fingerprint(registry("doForever")));
+        assertNotEquals(CompileCache.fingerprint(registry("doForever")),
+                CompileCache.fingerprint(registry("doRepeat")));
+
+        // blocks of base registries count, too
+        BlockRegistry extended = new BlockRegistry(registry("doForever"));
+        extended.register(new FunctionBlock(new BlockDescription.Builder().label("bar").build(), ScratchType.ANY,
+                "doForever"));
+        assertNotEquals(CompileCache.fingerprint(registry("doForever")), CompileCache.fingerprint(extended));
+    }
+
+    @Test
+    public void fingerprintsRegistrationOrder()
+    {
+        FunctionBlock bar = new FunctionBlock(new BlockDescription.Builder().label("bar").build(), ScratchType.ANY,
+                "doForever");
+        FunctionBlock baz = new FunctionBlock(new BlockDescription.Builder().label("baz").build(), ScratchType.ANY,
+                "doForever");
+
+        BlockRegistry first = new BlockRegistry(registry("doForever"));
+        first.register(bar);
+        first.register(baz);
+        BlockRegistry second = new BlockRegistry(registry("doForever"));
+        second.register(baz);
+        second.register(bar);
+
+        assertNotEquals(CompileCache.fingerprint(first), CompileCache.fingerprint(second));
+        assertEquals(CompileCache.fingerprint(first), CompileCache.fingerprint(first.freeze()));
+    }
+
+    @Test
+    public void identifiesTheBuild()
+    {
+        String id = CompileCache.getBuildId();
+
+        assertEquals(64, id.length());
+        assertSame(id, CompileCache.getBuildId());
+    }
+
+    @Test
+    public void invalidatesEntriesWhenBlocksChange(@TempDir Path tmp) throws IOException
+    {
+        CompileCache obj = new CompileCache(tmp, registry("doForever"), 1024);
+        String key = obj.key(Arrays.asList(bytes("a")));
+        obj.put(key, bytes("project"));
+
+        CompileCache other = new CompileCache(tmp, registry("doRepeat"), 1024);
+        assertNull(other.get(other.key(Arrays.asList(bytes("a")))));
+        assertEquals(0, countEntries(tmp));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries(@TempDir Path tmp) throws IOException
+    {
+        CompileCache obj = new CompileCache(tmp, registry("doForever"), 100);
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            String key = obj.key(Arrays.asList(bytes("unit" + i)));
+            obj.put(key, new byte[25]);
+            keys.add(key);
+        }
+        assertEquals(100, obj.getSize());
+
+        // make the first entry the most recently used one
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.walk(tmp)) {
+            for (Path p : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".ypr"))::iterator) {
+                Files.setLastModifiedTime(p, FileTime.fromMillis(now - 60_000));
+            }
+        }
+        assertNotNull(obj.get(keys.get(0)));
+
+        obj.put(obj.key(Arrays.asList(bytes("unit4"))), new byte[25]);
+
+        assertTrue(obj.getSize() <= 75);
+        assertEquals(obj.getSize(), countEntries(tmp) * 25);
+        assertNotNull(obj.get(keys.get(0)));
+    }
+
+    @Test
+    public void supportsConcurrentAccess(@TempDir Path tmp) throws Exception
+    {
+        CompileCache obj = new CompileCache(tmp, registry("doForever"), 1000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                String key = obj.key(Arrays.asList(bytes("unit" + (i % 20))));
+                byte[] project = bytes("project" + (i % 20));
+                futures.add(executor.submit(() -> {
+                    obj.put(key, project);
+                    byte[] cached = obj.get(key);
+                    // may have been evicted, but never be partial
+                    assertTrue(cached == null || Arrays.equals(project, cached));
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(countEntries(tmp) <= 20);
+    }
+}
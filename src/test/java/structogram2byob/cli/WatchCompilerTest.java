@@ -0,0 +1,99 @@
+package structogram2byob.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import structogram2byob.blocks.BlockRegistry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class WatchCompilerTest
+{
+    private static final Path TEST_UNIT = Paths.get("src/test/resources/testunit.nsd");
+
+    private static String[] lines(ByteArrayOutputStream bytes)
+    {
+        String[] lines = bytes.toString().split("\\R");
+        bytes.reset();
+        return lines;
+    }
+
+    @Test
+    public void recompilesChangedProjects(@TempDir Path tmp) throws IOException
+    {
+        Path dir = Files.createDirectories(tmp.resolve("project"));
+        Path a = Files.copy(TEST_UNIT, dir.resolve("a.nsd"));
+        Files.copy(TEST_UNIT, Files.createDirectories(tmp.resolve("other")).resolve("o.nsd"));
+
+        List<BatchCompiler.Project> projects = BatchCompiler.findProjects(Collections.singletonList(tmp));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WatchCompiler obj = new WatchCompiler(new BlockRegistry().freeze(), projects, 0, new PrintStream(bytes, true));
+
+        obj.compileAll();
+        String[] lines = lines(bytes);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("ok\t"));
+        assertTrue(lines[1].startsWith("ok\t"));
+
+        Path output = tmp.resolve("project.ypr");
+        assertTrue(Files.isRegularFile(output));
+        FileTime written = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(output, written);
+
+        // same contents: output is not rewritten, other projects are not touched
+        obj.update(Collections.singletonList(a));
+        lines = lines(bytes);
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].startsWith("unchanged\t"));
+        assertEquals(written, Files.getLastModifiedTime(output));
+
+        // defines the same block a second time
+        Path b = Files.copy(TEST_UNIT, dir.resolve("b.nsd"));
+        obj.update(Collections.singletonList(b));
+        lines = lines(bytes);
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].startsWith("failed\t"));
+
+        Files.delete(b);
+        obj.update(Collections.singletonList(b));
+        lines = lines(bytes);
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].startsWith("unchanged\t"));
+
+        obj.update(Collections.singletonList(tmp.resolve("project.ypr")));
+        assertEquals(0, bytes.size());
+    }
+
+    @Test
+    public void reportsUnreadableDiagrams(@TempDir Path tmp) throws IOException
+    {
+        Path single = Files.copy(TEST_UNIT, tmp.resolve("single.nsd"));
+
+        List<BatchCompiler.Project> projects = BatchCompiler.findProjects(Collections.singletonList(single));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WatchCompiler obj = new WatchCompiler(new BlockRegistry().freeze(), projects, 0, new PrintStream(bytes, true));
+
+        obj.compileAll();
+        assertTrue(lines(bytes)[0].startsWith("ok\t"));
+
+        Files.delete(single);
+        obj.update(Collections.singletonList(single));
+        String[] lines = lines(bytes);
+        assertTrue(lines[0].startsWith("failed\t"));
+        assertTrue(lines[0].contains("single.nsd"));
+
+        Files.copy(TEST_UNIT, single);
+        obj.update(Collections.singletonList(single));
+        assertTrue(lines(bytes)[0].startsWith("unchanged\t"));
+    }
+}
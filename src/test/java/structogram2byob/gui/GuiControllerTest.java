@@ -2,6 +2,9 @@ package structogram2byob.gui;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.JPanel;
 import javax.swing.filechooser.FileFilter;
@@ -10,7 +13,10 @@ import nsdlib.elements.NSDElement;
 import nsdlib.elements.NSDInstruction;
 import nsdlib.elements.NSDRoot;
 import org.junit.jupiter.api.Test;
+import structogram2byob.ScratchType;
+import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.blocks.FunctionBlock;
 import structogram2byob.gui.dialogs.IDialog;
 import structogram2byob.gui.dialogs.IDialogFactory;
 import structogram2byob.gui.frame.IFrameManager;
@@ -27,7 +33,7 @@ public class GuiControllerTest
         private boolean confirmationResult = false;
         private boolean confirmationCalled = false;
 
-        private File openResult;
+        private List<File> openResult;
         private boolean openCalled;
 
         private File saveResult;
@@ -47,6 +53,15 @@ public class GuiControllerTest
 
         @Override
         public IDialog<File> createOpenDialog(FileFilter type)
+        {
+            return () -> {
+                openCalled = true;
+                return openResult == null ? null : openResult.get(0);
+            };
+        }
+
+        @Override
+        public IDialog<List<File>> createMultiOpenDialog(FileFilter type)
         {
             return () -> {
                 openCalled = true;
@@ -103,6 +118,7 @@ public class GuiControllerTest
         private boolean addCalled = false;
         private GuiController addWithController;
         private NSDRoot addWithUnit;
+        private final List<NSDRoot> addedUnits = new ArrayList<>();
 
         private boolean removeCalled = false;
         private int removeWithIndex;
@@ -111,6 +127,9 @@ public class GuiControllerTest
 
         private boolean markErrorCalled = false;
         private NSDElement markErrorWithElement;
+        private final List<NSDElement> markedErrors = new ArrayList<>();
+
+        private int clearErrorMarksCount;
 
         @Override
         public JPanel getPanel()
@@ -124,6 +143,7 @@ public class GuiControllerTest
             addCalled = true;
             addWithController = controller;
             addWithUnit = unit;
+            addedUnits.add(unit);
         }
 
         @Override
@@ -144,11 +164,13 @@ public class GuiControllerTest
         {
             markErrorCalled = true;
             markErrorWithElement = element;
+            markedErrors.add(element);
         }
 
         @Override
         public void clearErrorMarks()
         {
+            ++clearErrorMarksCount;
         }
     }
 
@@ -205,6 +227,41 @@ public class GuiControllerTest
         assertTrue(frame.shown);
     }
 
+    @Test
+    public void queuesUnitsUntilRegistryIsSet()
+    {
+        MockDialogFactory dialogs = new MockDialogFactory();
+        MockFrameManager frame = new MockFrameManager();
+
+        GuiController obj = new GuiController(dialogs, frame);
+        assertFalse(obj.isReady());
+
+        NSDRoot unit = new NSDRoot("COMMAND do something");
+        obj.add(unit);
+
+        assertFalse(frame.units.addCalled);
+
+        obj.setBlockRegistry(new BlockRegistry());
+        assertTrue(obj.isReady());
+
+        assertTrue(frame.units.addCalled);
+        assertSame(unit, frame.units.addWithUnit);
+    }
+
+    @Test
+    public void doesNotExportBeforeRegistryIsSet()
+    {
+        MockDialogFactory dialogs = new MockDialogFactory();
+        MockFrameManager frame = new MockFrameManager();
+
+        GuiController obj = new GuiController(dialogs, frame);
+
+        dialogs.saveResult = null;
+        obj.openExportDialog();
+
+        assertFalse(dialogs.saveCalled);
+    }
+
     @Test
     public void addsUnitToFrame()
     {
@@ -262,6 +319,32 @@ public class GuiControllerTest
         assertSame(faulty, frame.units.markErrorWithElement);
     }
 
+    @Test
+    public void marksParserErrorsInDiagramOrder()
+    {
+        BlockRegistry reg = new BlockRegistry();
+        MockDialogFactory dialogs = new MockDialogFactory();
+        MockFrameManager frame = new MockFrameManager();
+
+        GuiController obj = new GuiController(dialogs, frame);
+
+        List<NSDElement> faulty = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            NSDRoot unit = new NSDRoot("COMMAND foo" + i);
+            if (i % 3 == 0) {
+                NSDInstruction instruction = new NSDInstruction("parse ( error " + i);
+                unit.addChild(instruction);
+                faulty.add(instruction);
+            }
+            obj.add(unit);
+        }
+
+        // parse everything at once
+        obj.setBlockRegistry(reg);
+
+        assertEquals(faulty, frame.units.markedErrors);
+    }
+
     @Test
     public void marksUnknownBlocks()
     {
@@ -300,6 +383,31 @@ public class GuiControllerTest
         assertTrue(frame.units.markErrorWithElement == unit0 || frame.units.markErrorWithElement == unit1);
     }
 
+    @Test
+    public void marksCallersOfRemovedDefinitions()
+    {
+        BlockRegistry reg = new BlockRegistry();
+        MockDialogFactory dialogs = new MockDialogFactory();
+        MockFrameManager frame = new MockFrameManager();
+
+        GuiController obj = new GuiController(reg, dialogs, frame);
+
+        NSDRoot unit0 = new NSDRoot("COMMAND foo");
+        obj.add(unit0);
+        NSDRoot unit1 = new NSDRoot("COMMAND bar");
+        NSDInstruction call = new NSDInstruction("foo");
+        unit1.addChild(call);
+        obj.add(unit1);
+
+        assertFalse(frame.units.markErrorCalled);
+
+        dialogs.confirmationResult = true;
+        obj.remove(unit0);
+
+        assertTrue(frame.units.markErrorCalled);
+        assertSame(call, frame.units.markErrorWithElement);
+    }
+
     @Test
     public void doesNotRemoveUnitWithoutConfirmation()
     {
@@ -403,12 +511,31 @@ public class GuiControllerTest
 
         GuiController obj = new GuiController(reg, dialogs, frame);
 
-        dialogs.openResult = new File("./src/test/resources/testunit.nsd");
+        dialogs.openResult = Arrays.asList(new File("./src/test/resources/testunit.nsd"));
         obj.openImportDialog();
 
         assertTrue(frame.units.addCalled);
     }
 
+    @Test
+    public void importsMultipleUnitsAsOneBatch()
+    {
+        BlockRegistry reg = new BlockRegistry();
+        MockDialogFactory dialogs = new MockDialogFactory();
+        MockFrameManager frame = new MockFrameManager();
+
+        GuiController obj = new GuiController(reg, dialogs, frame);
+        frame.units.clearErrorMarksCount = 0;
+
+        File unit = new File("./src/test/resources/testunit.nsd");
+        dialogs.openResult = Arrays.asList(unit, new File("./does-not-exist.nsd"), unit);
+        obj.openImportDialog();
+
+        assertEquals(2, frame.units.addedUnits.size());
+        assertEquals(1, frame.units.clearErrorMarksCount);
+        assertTrue(dialogs.messageText.contains("does-not-exist.nsd"));
+    }
+
     @Test
     public void showsExportDialog()
     {
@@ -461,6 +588,31 @@ public class GuiControllerTest
         assertTrue(out.isFile());
     }
 
+    @Test
+    public void convertsProjectOnExport()
+    {
+        File out = getTempFile(".ypr");
+
+        BlockRegistry reg = new BlockRegistry();
+        reg.register(new FunctionBlock(new BlockDescription.Builder().label("say").param(ScratchType.ANY).build(),
+                null, "say:"));
+        MockDialogFactory dialogs = new MockDialogFactory();
+        MockFrameManager frame = new MockFrameManager();
+
+        GuiController obj = new GuiController(reg, dialogs, frame);
+
+        NSDRoot unit = new NSDRoot("COMMAND greet");
+        unit.addChild(new NSDInstruction("say \"hello\""));
+        obj.add(unit);
+
+        assertFalse(frame.units.markErrorCalled);
+
+        dialogs.saveResult = out;
+        obj.openExportDialog();
+
+        assertTrue(out.isFile());
+    }
+
     @Test
     public void showsImageSaveDialog()
     {
@@ -162,4 +162,60 @@ public class LexerTest
         assertEquals(2, t.getLine());
         assertEquals(4, t.getColumn());
     }
+
+    @Test
+    public void normalizesLineBreaks() throws LexerException
+    {
+        Lexer obj = new Lexer("foo\r\n\"a\r\nb\" bar\rbaz");
+        Token t;
+
+        t = obj.next();
+        assertEquals(0, t.getLine());
+        assertEquals(0, t.getColumn());
+
+        t = obj.next();
+        assertToken(TokenType.STRING, "\"a\nb\"", t);
+        assertEquals(1, t.getLine());
+        assertEquals(0, t.getColumn());
+
+        t = obj.next();
+        assertToken(TokenType.LABEL, "bar", t);
+        assertEquals(1, t.getLine());
+        assertEquals(6, t.getColumn());
+
+        t = obj.next();
+        assertToken(TokenType.LABEL, "baz", t);
+        assertEquals(2, t.getLine());
+        assertEquals(0, t.getColumn());
+    }
+
+    @Test
+    public void tokenizesCharSequences() throws LexerException
+    {
+        Lexer obj = new Lexer(new StringBuilder("say (42)"));
+
+        assertToken(TokenType.LABEL, "say", obj.next());
+        assertToken(TokenType.PAREN_OPEN, "(", obj.next());
+        assertToken(TokenType.NUMBER, "42", obj.next());
+        assertToken(TokenType.PAREN_CLOSE, ")", obj.next());
+        assertFalse(obj.hasNext());
+    }
+
+    @Test
+    public void canonicalizesLabels() throws LexerException
+    {
+        Token t1 = new Lexer("move 10 steps").next();
+        Token t2 = new Lexer("  move").next();
+
+        assertSame(t1.getValue(), t2.getValue());
+        assertSame("move", t1.getValue());
+    }
+
+    @Test
+    public void throwsForMalformedNumbers()
+    {
+        assertThrows(LexerException.class, () -> new Lexer("1.").next());
+        assertThrows(LexerException.class, () -> new Lexer("1.2.3").next());
+        assertThrows(LexerException.class, () -> new Lexer("-.5").next());
+    }
 }
@@ -0,0 +1,55 @@
+package structogram2byob.lexer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class SymbolTableTest
+{
+    @Test
+    public void internsRegions()
+    {
+        SymbolTable obj = new SymbolTable(16);
+
+        String s1 = obj.intern("foo bar", 4, 7);
+        String s2 = obj.intern(new StringBuilder("rebar"), 2, 5);
+
+        assertEquals("bar", s1);
+        assertSame(s1, s2);
+        assertSame("bar", s1);
+    }
+
+    @Test
+    public void internsEmptyRegion()
+    {
+        SymbolTable obj = new SymbolTable(16);
+
+        assertEquals("", obj.intern("foo", 1, 1));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity()
+    {
+        SymbolTable obj = new SymbolTable(5000);
+
+        for (int i = 0; i < 5000; ++i) {
+            String s = "symbol" + i;
+            assertSame(s.intern(), obj.intern(s, 0, s.length()));
+        }
+        for (int i = 0; i < 5000; ++i) {
+            String s = "symbol" + i;
+            assertSame(s.intern(), obj.intern(new StringBuilder(s), 0, s.length()));
+        }
+    }
+
+    @Test
+    public void returnsSymbolsBeyondLimit()
+    {
+        SymbolTable obj = new SymbolTable(1);
+
+        assertEquals("foo", obj.intern("foo", 0, 3));
+        assertEquals("bar", obj.intern("bar", 0, 3));
+        assertEquals("bar", obj.intern("bar", 0, 3));
+    }
+}
@@ -17,4 +17,12 @@ public class TokenTest
         assertEquals(42, obj.getLine());
         assertEquals(37, obj.getColumn());
     }
+
+    @Test
+    public void printsLazyValues()
+    {
+        Token obj = new Token(TokenType.LABEL, "say foo", 4, 3, 0, 4);
+
+        assertEquals("LABEL:'foo'", obj.toString());
+    }
 }
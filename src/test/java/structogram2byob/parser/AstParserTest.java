@@ -1,6 +1,7 @@
 package structogram2byob.parser;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import structogram2byob.lexer.Token;
 import structogram2byob.lexer.TokenType;
 
@@ -80,4 +81,29 @@ public class AstParserTest
         assertFalse(node.hasValue());
         assertEquals(0, node.countBranches());
     }
+
+    @Test
+    @Timeout(10)
+    public void parsesDeeplyNestedInput() throws AstParserException
+    {
+        final int depth = 100_000;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            sb.append('(');
+        }
+        sb.append("foo");
+        for (int i = 0; i < depth; ++i) {
+            sb.append(')');
+        }
+
+        AstNode node = new AstParser(sb.toString()).parse();
+        for (int i = 0; i < depth; ++i) {
+            assertEquals(1, node.countBranches());
+            node = node.getBranch(0);
+        }
+
+        assertEquals(1, node.countBranches());
+        assertEquals("foo", node.getBranch(0).getValue().getValue());
+    }
 }
@@ -0,0 +1,91 @@
+package structogram2byob.parser.expression;
+
+import nsdlib.elements.NSDElement;
+import nsdlib.elements.NSDInstruction;
+import org.junit.jupiter.api.Test;
+import structogram2byob.program.expressions.BlockExpression;
+import structogram2byob.program.expressions.Expression;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ExpressionCacheTest
+{
+    @Test
+    public void bindsCachedExpressionsToElement() throws ExpressionParserException
+    {
+        ExpressionCache obj = new ExpressionCache(16);
+
+        NSDElement a = new NSDInstruction("a"), b = new NSDInstruction("b");
+
+        BlockExpression first = (BlockExpression) obj.parse(a, "change (i) by (1)");
+        BlockExpression second = (BlockExpression) obj.parse(b, "change (i) by (1)");
+
+        assertEquals(1, obj.getMisses());
+        assertEquals(1, obj.getHits());
+        assertEquals(1, obj.size());
+
+        assertNotSame(first, second);
+        assertEquals(first.toString(), second.toString());
+        assertSame(first.getDescription(), second.getDescription());
+
+        assertSame(a, first.getElement());
+        assertSame(b, second.getElement());
+        for (Expression param : second.getParameters()) {
+            assertSame(b, param.getElement());
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws ExpressionParserException
+    {
+        ExpressionCache obj = new ExpressionCache(2);
+
+        obj.parse(null, "a");
+        obj.parse(null, "b");
+        obj.parse(null, "a");
+        obj.parse(null, "c");
+
+        assertEquals(2, obj.size());
+        assertEquals(1, obj.getEvictions());
+
+        // "b" was evicted, "a" was not
+        obj.parse(null, "a");
+        assertEquals(2, obj.getHits());
+        obj.parse(null, "b");
+        assertEquals(2, obj.getHits());
+    }
+
+    @Test
+    public void reportsErrorsLikeParser()
+    {
+        ExpressionCache obj = new ExpressionCache(16);
+
+        for (String input : new String[] { "foo )", "foo (bar", "   ", "foo \"test" }) {
+            ExpressionParserException expected = assertThrows(ExpressionParserException.class,
+                    new ExpressionParser(null, input)::parse);
+
+            for (int i = 0; i < 2; ++i) {
+                ExpressionParserException e = assertThrows(ExpressionParserException.class,
+                        () -> obj.parse(null, input));
+                assertEquals(expected.getMessage(), e.getMessage());
+                assertEquals(expected.getCause() == null, e.getCause() == null);
+            }
+        }
+
+        assertEquals(0, obj.size());
+    }
+
+    @Test
+    public void bypassesCacheWhenDisabled() throws ExpressionParserException
+    {
+        ExpressionCache obj = new ExpressionCache(0);
+
+        obj.parse(null, "foo");
+        obj.parse(null, "foo");
+
+        assertEquals(0, obj.size());
+        assertEquals(0, obj.getHits());
+        assertEquals(0, obj.getMisses());
+    }
+}
@@ -4,8 +4,10 @@ import java.util.Collections;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.BlockDescription;
+import structogram2byob.parser.AstParserException;
 import structogram2byob.program.expressions.BlockExpression;
 import structogram2byob.program.expressions.Expression;
 import structogram2byob.program.expressions.NumberExpression;
@@ -118,4 +120,56 @@ public class ExpressionParserTest
         ExpressionParser obj = new ExpressionParser(null, "foo \"test");
         assertThrows(ExpressionParserException.class, obj::parse);
     }
+
+    @Test
+    public void reportsSyntaxErrorsLikeAstParser()
+    {
+        ExpressionParserException e;
+
+        e = assertThrows(ExpressionParserException.class, new ExpressionParser(null, "foo )")::parse);
+        assertTrue(e.getCause() instanceof AstParserException);
+        assertEquals("parse incomplete", e.getCause().getMessage());
+
+        e = assertThrows(ExpressionParserException.class, new ExpressionParser(null, "foo (bar")::parse);
+        assertTrue(e.getCause() instanceof AstParserException);
+        assertEquals("unexpected token", e.getCause().getMessage());
+
+        e = assertThrows(ExpressionParserException.class, new ExpressionParser(null, "   ")::parse);
+        assertEquals("expression is empty", e.getMessage());
+    }
+
+    @Test
+    public void unwrapsNestedSingleExpressions() throws ExpressionParserException
+    {
+        Expression exp = new ExpressionParser(null, "((42))").parse();
+        assertTrue(exp instanceof NumberExpression);
+
+        exp = new ExpressionParser(null, "((foo))").parse();
+        assertEquals(new BlockDescription.Builder().label("foo").build(),
+                ((BlockExpression) exp).getDescription());
+        assertEquals(0, ((BlockExpression) exp).getParameters().size());
+    }
+
+    @Test
+    @Timeout(10)
+    public void parsesDeeplyNestedExpressions() throws ExpressionParserException
+    {
+        final int depth = 100_000;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            sb.append("say (");
+        }
+        sb.append("42");
+        for (int i = 0; i < depth; ++i) {
+            sb.append(')');
+        }
+
+        Expression exp = new ExpressionParser(null, sb.toString()).parse();
+        for (int i = 0; i < depth; ++i) {
+            exp = ((BlockExpression) exp).getParameters().get(0);
+        }
+
+        assertEquals(42, ((NumberExpression) exp).getValue());
+    }
 }
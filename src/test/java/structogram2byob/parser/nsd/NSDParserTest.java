@@ -9,6 +9,7 @@ import nsdlib.elements.alternatives.NSDDecision;
 import nsdlib.elements.loops.NSDForever;
 import nsdlib.elements.loops.NSDTestFirstLoop;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.structures.ForeverBlock;
@@ -189,4 +190,32 @@ public class NSDParserTest
         ScriptExpression p1 = (ScriptExpression) block0.getParameters().get(1);
         assertEquals(1, p1.size());
     }
+
+    @Test
+    @Timeout(10)
+    public void parsesDeeplyNestedDiagrams() throws NSDParserException
+    {
+        final int depth = 100_000;
+
+        NSDForever innermost = new NSDForever(Collections.singletonList(new NSDInstruction("say \"deep\"")));
+        NSDForever loop = innermost;
+        for (int i = 1; i < depth; ++i) {
+            loop = new NSDForever(Collections.singletonList(loop));
+        }
+
+        NSDRoot nsd = new NSDRoot("COMMAND test");
+        nsd.addChild(loop);
+
+        ProgramUnit result = new NSDParser(nsd).parse();
+
+        BlockExpression block = result.getBlocks().get(0);
+        for (int i = 1; i < depth; ++i) {
+            assertEquals(ForeverBlock.instance.getDescription(), block.getDescription());
+            block = ((ScriptExpression) block.getParameters().get(0)).getBlocks().get(0);
+        }
+
+        ScriptExpression script = (ScriptExpression) block.getParameters().get(0);
+        assertSame(innermost, script.getElement());
+        assertEquals("deep", ((StringExpression) script.getBlocks().get(0).getParameters().get(0)).getValue());
+    }
 }
@@ -0,0 +1,231 @@
+package structogram2byob.parser.nsd;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nsdlib.elements.NSDContainer;
+import nsdlib.elements.NSDElement;
+import nsdlib.elements.NSDInstruction;
+import nsdlib.elements.NSDRoot;
+import nsdlib.elements.alternatives.NSDDecision;
+import nsdlib.elements.loops.NSDForever;
+import nsdlib.elements.loops.NSDTestFirstLoop;
+import nsdlib.elements.loops.NSDTestLastLoop;
+import nsdlib.reader.NSDReaderException;
+import nsdlib.reader.StructorizerReader;
+import org.junit.jupiter.api.Test;
+import structogram2byob.program.ProgramUnit;
+import structogram2byob.program.UnitType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class StructorizerStreamReaderTest
+{
+    private static NSDRoot read(String xml) throws NSDReaderException, IOException
+    {
+        return new StructorizerStreamReader().read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertSameTree(NSDElement expected, NSDElement actual)
+    {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getLabel(), actual.getLabel());
+        if (expected instanceof NSDDecision) {
+            assertSameTree(((NSDDecision) expected).getThen(), ((NSDDecision) actual).getThen());
+            assertSameTree(((NSDDecision) expected).getElse(), ((NSDDecision) actual).getElse());
+        } else if (expected instanceof NSDContainer) {
+            NSDContainer<?> e = (NSDContainer<?>) expected, a = (NSDContainer<?>) actual;
+            assertEquals(e.countChildren(), a.countChildren());
+            for (int i = 0; i < e.countChildren(); ++i) {
+                assertSameTree(e.getChild(i), a.getChild(i));
+            }
+        }
+    }
+
+    private static String diagram(String label, String children)
+    {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<root xmlns:nsd=\"http://structorizer.fisch.lu/\" text=\"" + label + "\" type=\"program\">"
+                + "<children>" + children + "</children></root>";
+    }
+
+    @Test
+    public void readsFiles() throws NSDReaderException, IOException
+    {
+        NSDRoot root;
+        try (InputStream in = Files.newInputStream(Paths.get("src/test/resources/testunit.nsd"))) {
+            root = new StructorizerStreamReader().read(in);
+        }
+
+        assertEquals("COMMAND do something", root.getLabel());
+        assertEquals(0, root.countChildren());
+    }
+
+    @Test
+    public void readsNestedElements() throws NSDReaderException, IOException
+    {
+        NSDRoot root = read(diagram("&#34;COMMAND test&#34;", ""
+                + "<alternative text=\"&#34;true&#34;\">"
+                + "<qTrue><instruction text=\"&#34;say &#34;&#34;hi&#34;&#34;&#34;,&#34;wait 1 secs&#34;\"/></qTrue>"
+                + "<qFalse><while text=\"&#34;repeat 3&#34;\"><qWhile>"
+                + "<forever text=\"\"><qForever><call text=\"&#34;bar&#34;\"/></qForever></forever>"
+                + "</qWhile></while></qFalse>"
+                + "</alternative>"
+                + "<repeat text=\"&#34;until done&#34;\"><qRepeat><jump text=\"\"/></qRepeat></repeat>"));
+
+        assertEquals("COMMAND test", root.getLabel());
+        assertEquals(2, root.countChildren());
+
+        NSDDecision decision = (NSDDecision) root.getChild(0);
+        assertEquals("true", decision.getLabel());
+        assertEquals(1, decision.getThen().countChildren());
+        assertEquals("say \"hi\"\nwait 1 secs", decision.getThen().getChild(0).getLabel());
+        assertTrue(decision.getThen().getChild(0) instanceof NSDInstruction);
+
+        NSDTestFirstLoop loop = (NSDTestFirstLoop) decision.getElse().getChild(0);
+        assertEquals("repeat 3", loop.getLabel());
+        NSDForever forever = (NSDForever) loop.getChild(0);
+        assertEquals("bar", forever.getChild(0).getLabel());
+
+        NSDTestLastLoop repeat = (NSDTestLastLoop) root.getChild(1);
+        assertEquals("until done", repeat.getLabel());
+        assertEquals(1, repeat.countChildren());
+    }
+
+    @Test
+    public void readsLikeStructorizerReader() throws NSDReaderException, IOException
+    {
+        String xml = diagram("&#34;COMMAND test&#34;", ""
+                + "<instruction text=\"&#34;say 1&#34;\"/>"
+                + "<call text=\"&#34;foo&#34;\"/>"
+                + "<jump text=\"&#34;exit&#34;\"/>"
+                + "<alternative text=\"&#34;true&#34;\"><qTrue><jump text=\"\"/></qTrue><qFalse/></alternative>"
+                + "<case text=\"&#34;x&#34;,&#34;1&#34;,&#34;default&#34;\">"
+                + "<qCase><instruction text=\"&#34;say 1&#34;\"/></qCase><qCase><call text=\"&#34;bar&#34;\"/></qCase>"
+                + "</case>"
+                + "<for text=\"&#34;repeat 2&#34;\"><qFor>"
+                + "<parallel text=\"&#34;&#34;\"><qPara>"
+                + "<qTerminal><instruction text=\"&#34;a&#34;\"/></qTerminal><qTerminal/>"
+                + "</qPara></parallel>"
+                + "</qFor></for>"
+                + "<repeat text=\"&#34;until done&#34;\"><qRepeat><forever text=\"\"><qForever/></forever>"
+                + "</qRepeat></repeat>");
+
+        NSDRoot expected = new StructorizerReader().read(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+
+        assertSameTree(expected, read(xml));
+    }
+
+    @Test
+    public void leavesUnsupportedElementsToTheParser() throws NSDReaderException, IOException
+    {
+        NSDRoot root = read(diagram("&#34;COMMAND test&#34;", ""
+                + "<instruction text=\"&#34;say 1&#34;\"/>"
+                + "<case text=\"&#34;x&#34;,&#34;1&#34;,&#34;default&#34;\"><qCase/><qCase/></case>"));
+
+        NSDParserException e = assertThrows(NSDParserException.class, () -> new NSDParser(root).parse());
+        assertSame(root.getChild(1), e.getElement());
+        assertTrue(e.getMessage().startsWith("unknown element"));
+    }
+
+    @Test
+    public void producesParsableTrees() throws Exception
+    {
+        NSDRoot root = read(diagram("&#34;COMMAND test&#34;", ""
+                + "<alternative text=\"&#34;true&#34;\">"
+                + "<qTrue><instruction text=\"&#34;say &#34;&#34;then&#34;&#34;&#34;\"/></qTrue><qFalse/>"
+                + "</alternative>"));
+
+        ProgramUnit unit = new NSDParser(root).parse();
+
+        assertEquals(UnitType.COMMAND, unit.getType());
+        assertEquals(1, unit.getBlocks().size());
+    }
+
+    @Test
+    public void decodesTexts()
+    {
+        assertEquals("", StructorizerStreamReader.decodeText("\"\""));
+        assertEquals("foo", StructorizerStreamReader.decodeText("\"foo\""));
+        assertEquals("a\nb\n", StructorizerStreamReader.decodeText("\"a\",\"b\",\"\""));
+        assertEquals("say \"x, y\"", StructorizerStreamReader.decodeText("\"say \"\"x, y\"\"\""));
+
+        // not in the quoted format
+        assertEquals("", StructorizerStreamReader.decodeText(""));
+        assertEquals("foo", StructorizerStreamReader.decodeText("foo"));
+        assertEquals("\"foo", StructorizerStreamReader.decodeText("\"foo"));
+        assertEquals("\"a\" \"b\"", StructorizerStreamReader.decodeText("\"a\" \"b\""));
+    }
+
+    @Test
+    public void rejectsInvalidDiagrams()
+    {
+        assertThrows(NSDReaderException.class, () -> read("<notroot/>"));
+        assertThrows(NSDReaderException.class, () -> read("<root text=\"\"><children>"));
+        assertThrows(NSDReaderException.class, () -> read(diagram("", "<instruction><qTrue/></instruction>")));
+        assertThrows(NSDReaderException.class, () -> read("<root text=\"\"><qTrue/></root>"));
+    }
+
+    @Test
+    public void doesNotExpandEntities()
+    {
+        String xml = "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE root [<!ENTITY x SYSTEM \"file:///etc/hostname\">]>\n"
+                + "<root text=\"&x;\"><children/></root>";
+
+        assertThrows(NSDReaderException.class, () -> read(xml));
+    }
+
+    @Test
+    public void readsDeeplyNestedDiagrams() throws NSDReaderException, IOException
+    {
+        int depth = 10_000;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            sb.append("<forever text=\"\"><qForever>");
+        }
+        sb.append("<instruction text=\"&#34;say 42&#34;\"/>");
+        for (int i = 0; i < depth; ++i) {
+            sb.append("</qForever></forever>");
+        }
+
+        NSDElement e = read(diagram("&#34;COMMAND test&#34;", sb.toString())).getChild(0);
+        for (int i = 0; i < depth; ++i) {
+            e = ((NSDContainer<?>) e).getChild(0);
+        }
+        assertEquals("say 42", e.getLabel());
+    }
+
+    @Test
+    public void readsConcurrently() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<NSDRoot>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                String xml = diagram("&#34;COMMAND unit" + i + "&#34;", "<instruction text=\"&#34;say " + i
+                        + "&#34;\"/>");
+                futures.add(executor.submit(() -> read(xml)));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                NSDRoot root = futures.get(i).get();
+                assertEquals("COMMAND unit" + i, root.getLabel());
+                assertEquals("say " + i, root.getChild(0).getLabel());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
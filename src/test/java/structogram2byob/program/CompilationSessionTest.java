@@ -0,0 +1,268 @@
+package structogram2byob.program;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchlib.project.ScratchProject;
+import structogram2byob.ScratchType;
+import structogram2byob.blocks.BlockDescription;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.blocks.FunctionBlock;
+import structogram2byob.blocks.hats.StartClickedHatBlock;
+import structogram2byob.program.expressions.BlockExpression;
+import structogram2byob.program.expressions.NumberExpression;
+import structogram2byob.program.expressions.StringExpression;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class CompilationSessionTest
+{
+    private static final FunctionBlock SAY = new FunctionBlock(
+            new BlockDescription.Builder().label("say").param(ScratchType.ANY).build(), null, "say");
+
+    private static BlockRegistry createRegistry()
+    {
+        BlockRegistry reg = new BlockRegistry();
+        reg.register(StartClickedHatBlock.instance);
+        reg.register(SAY);
+        return reg;
+    }
+
+    private static BlockDescription label(String... labels)
+    {
+        BlockDescription.Builder builder = new BlockDescription.Builder();
+        for (String label : labels) {
+            builder.label(label);
+        }
+        return builder.build();
+    }
+
+    private static ProgramUnit command(String name, BlockExpression... body)
+    {
+        return new ProgramUnit(null, UnitType.COMMAND, label("do", name), Arrays.asList(body));
+    }
+
+    private static ProgramUnit script(BlockExpression... body)
+    {
+        return new ProgramUnit(null, UnitType.SCRIPT, label("when", "start", "clicked"),
+                Arrays.asList(body));
+    }
+
+    private static BlockExpression say(String message)
+    {
+        return new BlockExpression(null, SAY.getDescription(),
+                Collections.singletonList(new StringExpression(null, message)));
+    }
+
+    private static BlockExpression invoke(String name)
+    {
+        return new BlockExpression(null, label("do", name), Collections.emptyList());
+    }
+
+    @Test
+    public void linksOnlyAddedUnitWithoutDependents()
+    {
+        CompilationSession obj = new CompilationSession(createRegistry());
+        for (int i = 0; i < 300; ++i) {
+            obj.add(command(Integer.toString(i), say("hello " + i), invoke(Integer.toString(i / 2))));
+        }
+        assertEquals(300, obj.getLinkCount());
+
+        obj.add(command("new", say("hello"), invoke("0")));
+
+        assertEquals(301, obj.getLinkCount());
+        assertTrue(obj.getErrors().isEmpty());
+    }
+
+    @Test
+    public void relinksDependentsOfAddedBlocks()
+    {
+        CompilationSession obj = new CompilationSession(createRegistry());
+        obj.add(script(invoke("it")));
+        obj.add(script(say("unrelated")));
+        assertEquals(1, obj.getErrors().size());
+
+        long linkCount = obj.getLinkCount();
+        obj.add(command("it"));
+
+        assertEquals(linkCount + 2, obj.getLinkCount());
+        assertTrue(obj.getErrors().isEmpty());
+    }
+
+    @Test
+    public void relinksDependentsOfRemovedBlocks()
+    {
+        CompilationSession obj = new CompilationSession(createRegistry());
+        ProgramUnit definition = command("it");
+        obj.add(definition);
+        obj.add(script(invoke("it")));
+        obj.add(script(say("unrelated")));
+        assertTrue(obj.getErrors().isEmpty());
+
+        long linkCount = obj.getLinkCount();
+        obj.remove(definition);
+
+        assertEquals(linkCount + 1, obj.getLinkCount());
+        assertEquals(1, obj.getErrors().size());
+    }
+
+    @Test
+    public void registersDuplicateAfterRemovingDefinition()
+    {
+        CompilationSession obj = new CompilationSession(createRegistry());
+        ProgramUnit first = command("it");
+        ProgramUnit second = command("it", say("second"));
+        obj.add(first);
+        obj.add(script(invoke("it")));
+        obj.add(second);
+
+        List<ScratchConversionException> errors = obj.getErrors();
+        assertEquals(1, errors.size());
+        assertThrows(ScratchConversionException.class, () -> obj.toScratch(false));
+
+        obj.remove(first);
+
+        assertTrue(obj.getErrors().isEmpty());
+        assertDoesNotThrow(() -> obj.toScratch(false));
+    }
+
+    @Test
+    public void reportsErrorsLikeProgram()
+    {
+        ProgramUnit[] units = {
+                script(invoke("missing")),
+                command("dup"),
+                command("dup", invoke("also missing")),
+        };
+
+        Program program = new Program();
+        CompilationSession obj = new CompilationSession(createRegistry());
+        for (ProgramUnit unit : units) {
+            program.addUnit(unit);
+            obj.add(unit);
+        }
+
+        ScratchConversionException expected = assertThrows(ScratchConversionException.class,
+                () -> program.toScratch(createRegistry()));
+        ScratchConversionException actual = assertThrows(ScratchConversionException.class,
+                () -> obj.toScratch(false));
+
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getSuppressed().length, actual.getSuppressed().length);
+        assertEquals(3, obj.getErrors().size());
+    }
+
+    @Test
+    public void convertsLikeProgram() throws ScratchConversionException
+    {
+        Program program = new Program();
+        CompilationSession obj = new CompilationSession(createRegistry());
+        for (int i = 0; i < 10; ++i) {
+            ProgramUnit unit = i % 2 == 0 ? script(say("hello " + i), invoke("1"))
+                    : command(Integer.toString(i), say("hello " + i));
+            program.addUnit(unit);
+            obj.add(unit);
+        }
+
+        ScratchProject expected = program.toScratch(createRegistry());
+        ScratchProject actual = obj.toScratch(true);
+
+        assertEquals(expected.getStage().getCustomBlockCount(), actual.getStage().getCustomBlockCount());
+        assertEquals(expected.getStage().getSprite(0).getScriptCount(),
+                actual.getStage().getSprite(0).getScriptCount());
+    }
+
+    @Test
+    public void reusesSerializedUnits() throws ScratchConversionException
+    {
+        CompilationSession obj = new CompilationSession(createRegistry());
+        obj.add(command("a", say("a")));
+        obj.add(command("b", say("b")));
+
+        ScratchObjectStageMorph first = obj.toScratch(false).getStage();
+
+        obj.add(command("c", invoke("a")));
+        ScratchObjectStageMorph second = obj.toScratch(false).getStage();
+
+        assertEquals(3, second.getCustomBlockCount());
+        assertSame(first.getCustomBlock(0), second.getCustomBlock(0));
+        assertSame(first.getCustomBlock(1), second.getCustomBlock(1));
+    }
+
+    @Test
+    public void insertsDefinitionsInUnitOrder()
+    {
+        BlockDescription number = new BlockDescription.Builder().label("show").param(ScratchType.NUMBER, "x").build();
+        BlockDescription any = new BlockDescription.Builder().label("show").param(ScratchType.ANY, "x").build();
+        ProgramUnit showNumber = new ProgramUnit(null, UnitType.COMMAND, number, Collections.emptyList());
+        ProgramUnit showAny = new ProgramUnit(null, UnitType.COMMAND, any, Collections.emptyList());
+
+        CompilationSession obj = new CompilationSession(createRegistry());
+        obj.add(showNumber);
+        obj.add(script(new BlockExpression(null, new BlockDescription.Builder().label("show")
+                .param(ScratchType.NUMBER).build(), Collections.singletonList(new NumberExpression(null, 5)))));
+
+        // the earlier definition takes over the invocation
+        long linkCount = obj.getLinkCount();
+        obj.add(0, showAny);
+        assertEquals(linkCount + 2, obj.getLinkCount());
+
+        linkCount = obj.getLinkCount();
+        obj.remove(showNumber);
+        assertEquals(linkCount, obj.getLinkCount());
+        assertTrue(obj.getErrors().isEmpty());
+    }
+
+    @Test
+    public void replacesDefinitionsInPlace() throws ScratchConversionException
+    {
+        ProgramUnit first = command("a", say("first"));
+        ProgramUnit caller = script(invoke("a"));
+
+        CompilationSession obj = new CompilationSession(createRegistry());
+        obj.add(first);
+        obj.add(caller);
+        obj.add(command("b", say("b")));
+        ScratchObjectStageMorph before = obj.toScratch(false).getStage();
+
+        long linkCount = obj.getLinkCount();
+        ProgramUnit second = command("a", say("second"));
+        obj.replace(first, second);
+
+        assertEquals(linkCount + 2, obj.getLinkCount());
+        assertSame(second, obj.getUnits().get(0));
+        assertSame(caller, obj.getUnits().get(1));
+
+        ScratchObjectStageMorph after = obj.toScratch(false).getStage();
+        assertNotSame(before.getCustomBlock(0), after.getCustomBlock(0));
+        assertSame(before.getCustomBlock(1), after.getCustomBlock(1));
+    }
+
+    @Test
+    public void replacesDefinitionsWithOtherSignatures()
+    {
+        ProgramUnit first = command("a");
+        CompilationSession obj = new CompilationSession(createRegistry());
+        obj.add(first);
+        obj.add(script(invoke("a")));
+        obj.add(script(invoke("b")));
+        assertEquals(1, obj.getErrors().size());
+
+        obj.replace(first, command("b"));
+
+        assertEquals(1, obj.getErrors().size());
+        assertEquals(UnitType.COMMAND, obj.getUnits().get(0).getType());
+    }
+
+    @Test
+    public void throwsForUnknownUnits()
+    {
+        CompilationSession obj = new CompilationSession(createRegistry());
+
+        assertThrows(IllegalArgumentException.class, () -> obj.remove(command("a")));
+    }
+}
@@ -0,0 +1,74 @@
+package structogram2byob.program;
+
+import java.util.Collections;
+
+import nsdlib.elements.NSDInstruction;
+import org.junit.jupiter.api.Test;
+import structogram2byob.ScratchType;
+import structogram2byob.blocks.Block;
+import structogram2byob.blocks.BlockDescription;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.blocks.FunctionBlock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LinkerTest
+{
+    @Test
+    public void resolvesKnownBlocks()
+    {
+        BlockRegistry blocks = new BlockRegistry();
+        Block say = new FunctionBlock(new BlockDescription.Builder().label("say").param(ScratchType.ANY).build(),
+                null, "say:");
+        blocks.register(say);
+
+        Linker obj = new Linker(blocks);
+
+        assertSame(blocks, obj.getBlocks());
+        assertSame(say, obj.resolve(null, new BlockDescription.Builder().label("say")
+                .param(ScratchType.TEXT).build()));
+        assertTrue(obj.getErrors().isEmpty());
+    }
+
+    @Test
+    public void recordsUnknownBlocks()
+    {
+        Linker obj = new Linker(new BlockRegistry());
+
+        NSDInstruction element = new NSDInstruction("foo");
+        assertNull(obj.resolve(element, new BlockDescription.Builder().label("foo").build()));
+
+        assertEquals(1, obj.getErrors().size());
+        assertSame(element, obj.getErrors().get(0).getElement());
+    }
+
+    @Test
+    public void throwsFirstErrorWithOthersSuppressed()
+    {
+        Linker obj = new Linker(new BlockRegistry());
+
+        assertDoesNotThrow(obj::throwErrors);
+
+        NSDInstruction first = new NSDInstruction("foo");
+        NSDInstruction second = new NSDInstruction("bar");
+        obj.resolve(first, new BlockDescription.Builder().label("foo").build());
+        obj.resolve(second, new BlockDescription.Builder().label("bar").build());
+
+        ScratchConversionException e = assertThrows(ScratchConversionException.class, obj::throwErrors);
+        assertSame(first, e.getElement());
+        assertEquals(1, e.getSuppressed().length);
+        assertSame(second, ((ScratchConversionException) e.getSuppressed()[0]).getElement());
+    }
+
+    @Test
+    public void doesNotLinkVariableNames()
+    {
+        Linker obj = new Linker(new BlockRegistry());
+
+        new ProgramUnit(null, UnitType.COMMAND, new BlockDescription.Builder().label("foo")
+                .param(ScratchType.ANY, "a").build(), Collections.emptyList()).link(obj);
+
+        assertTrue(obj.getErrors().isEmpty());
+    }
+}
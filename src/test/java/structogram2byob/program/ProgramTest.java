@@ -1,14 +1,28 @@
 package structogram2byob.program;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
+import nsdlib.elements.NSDInstruction;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import scratchlib.objects.fixed.data.ScratchObjectAbstractString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
 import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchReader;
+import scratchlib.writer.ScratchWriter;
 import structogram2byob.ScratchType;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
@@ -163,4 +177,167 @@ public class ProgramTest
         assertEquals(1, sprite.getCustomBlockCount());
         assertEquals(1, sprite.getScriptCount());
     }
+
+    @Test
+    public void reportsAllUnknownBlocks()
+    {
+        Program obj = new Program();
+
+        BlockDescription scriptDesc = new BlockDescription.Builder()
+                .label("when").label("start").label("clicked").build();
+        NSDInstruction first = new NSDInstruction("foo");
+        NSDInstruction second = new NSDInstruction("bar");
+        obj.addUnit(new ProgramUnit(null, UnitType.SCRIPT, scriptDesc, Arrays.asList(
+                new BlockExpression(first, new BlockDescription.Builder().label("foo").build(),
+                        Collections.emptyList()),
+                new BlockExpression(second, new BlockDescription.Builder().label("bar").build(),
+                        Collections.emptyList()))));
+
+        BlockRegistry reg = new BlockRegistry();
+        reg.register(StartClickedHatBlock.instance);
+
+        ScratchConversionException e = assertThrows(ScratchConversionException.class, () -> obj.toScratch(reg));
+        assertSame(first, e.getElement());
+        assertEquals(1, e.getSuppressed().length);
+        assertSame(second, ((ScratchConversionException) e.getSuppressed()[0]).getElement());
+    }
+
+    @Test
+    public void serializesConcurrentlyLikeSequentially(@TempDir Path dir) throws Exception
+    {
+        FunctionBlock say = new FunctionBlock(
+                new BlockDescription.Builder().label("say").param(ScratchType.ANY).build(), null, "say");
+
+        Program obj = new Program();
+
+        BlockDescription scriptDesc = new BlockDescription.Builder()
+                .label("when").label("start").label("clicked").build();
+        for (int i = 0; i < 50; ++i) {
+            List<BlockExpression> body = new ArrayList<>();
+            for (int j = 0; j <= i % 5; ++j) {
+                body.add(new BlockExpression(null, say.getDescription(),
+                        Collections.singletonList(new StringExpression(null, "hello " + i + " " + j))));
+            }
+            obj.addUnit(new ProgramUnit(null, UnitType.SCRIPT, scriptDesc, body));
+
+            BlockDescription cmdDesc = new BlockDescription.Builder().label("do").label(Integer.toString(i)).build();
+            obj.addUnit(new ProgramUnit(null, UnitType.COMMAND, cmdDesc, body));
+        }
+
+        BlockRegistry reg = new BlockRegistry();
+        reg.register(StartClickedHatBlock.instance);
+        reg.register(say);
+
+        ScratchProject sequential = obj.toScratch(reg, false);
+        ScratchProject concurrent = obj.toScratch(reg, true);
+
+        assertEquals(100, concurrent.getStage().getSprite(0).getScriptCount()
+                + concurrent.getStage().getSprite(0).getCustomBlockCount());
+
+        File sequentialFile = dir.resolve("sequential.ypr").toFile();
+        File concurrentFile = dir.resolve("concurrent.ypr").toFile();
+        new ScratchWriter(sequentialFile).write(sequential);
+        new ScratchWriter(concurrentFile).write(concurrent);
+
+        assertArrayEquals(Files.readAllBytes(sequentialFile.toPath()), Files.readAllBytes(concurrentFile.toPath()));
+    }
+
+    @Test
+    public void requiresLinkingForConcurrentSerialization() throws ScratchConversionException
+    {
+        BlockDescription scriptDesc = new BlockDescription.Builder()
+                .label("when").label("start").label("clicked").build();
+        ProgramUnit unit = new ProgramUnit(null, UnitType.SCRIPT, scriptDesc, Collections.singletonList(
+                new BlockExpression(null, new BlockDescription.Builder().label("foo").build(),
+                        Collections.emptyList())));
+        List<ProgramUnit> units = Collections.singletonList(unit);
+
+        BlockRegistry reg = new BlockRegistry();
+        reg.register(StartClickedHatBlock.instance);
+        reg.register(new FunctionBlock(new BlockDescription.Builder().label("foo").build(), null, "foo"));
+
+        // never linked
+        assertThrows(IllegalStateException.class, () -> Program.serializeUnits(units, reg, true));
+        assertEquals(1, Program.serializeUnits(units, reg, false).length);
+
+        // linked against another registry
+        BlockRegistry other = new BlockRegistry(reg);
+        unit.link(new Linker(other));
+        assertThrows(IllegalStateException.class, () -> Program.serializeUnits(units, reg, true));
+
+        // linked with errors
+        BlockRegistry incomplete = new BlockRegistry();
+        incomplete.register(StartClickedHatBlock.instance);
+        unit.link(new Linker(incomplete));
+        assertThrows(IllegalStateException.class, () -> Program.serializeUnits(units, incomplete, true));
+
+        unit.link(new Linker(reg));
+        assertEquals(1, Program.serializeUnits(units, reg, true).length);
+    }
+
+    @Test
+    public void sharesReportersOnlyWithinOneConversion() throws ScratchConversionException
+    {
+        BlockDescription move = new BlockDescription.Builder().label("move").param(ScratchType.NUMBER).build();
+        BlockDescription xPosition = new BlockDescription.Builder().label("x").label("position").build();
+
+        BlockDescription scriptDesc = new BlockDescription.Builder()
+                .label("when").label("start").label("clicked").build();
+        List<BlockExpression> body = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            body.add(new BlockExpression(null, move, Collections.singletonList(
+                    new BlockExpression(null, xPosition, Collections.emptyList()))));
+        }
+        List<ProgramUnit> units = Collections.singletonList(new ProgramUnit(null, UnitType.SCRIPT, scriptDesc, body));
+        Program obj = new Program();
+        obj.addUnit(units.get(0));
+
+        BlockRegistry reg = new BlockRegistry();
+        reg.register(StartClickedHatBlock.instance);
+        reg.register(new FunctionBlock(move, null, "forward:"));
+        reg.register(new FunctionBlock(xPosition, ScratchType.NUMBER, "xpos"));
+
+        BlockRegistry linked = obj.link(reg);
+        ScratchObjectArray first = (ScratchObjectArray) Program.serializeUnits(units, linked, false)[0];
+        ScratchObjectArray second = (ScratchObjectArray) Program.serializeUnits(units, linked, true)[0];
+
+        assertSame(((ScratchObjectArray) first.get(1)).get(1), ((ScratchObjectArray) first.get(2)).get(1));
+        assertSame(((ScratchObjectArray) second.get(1)).get(1), ((ScratchObjectArray) second.get(2)).get(1));
+        assertNotSame(((ScratchObjectArray) first.get(1)).get(1), ((ScratchObjectArray) second.get(1)).get(1));
+    }
+
+    @Test
+    public void roundTripsSharedParameterReads(@TempDir Path dir) throws Exception
+    {
+        FunctionBlock say = new FunctionBlock(
+                new BlockDescription.Builder().label("say").param(ScratchType.ANY).build(), null, "say:");
+        BlockDescription readName = new BlockDescription.Builder().label("name").build();
+
+        BlockDescription cmdDesc = new BlockDescription.Builder().label("greet").param(ScratchType.ANY, "name")
+                .build();
+        List<BlockExpression> body = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            body.add(new BlockExpression(null, say.getDescription(), Collections.singletonList(
+                    new BlockExpression(null, readName, Collections.emptyList()))));
+        }
+        Program obj = new Program();
+        obj.addUnit(new ProgramUnit(null, UnitType.COMMAND, cmdDesc, body));
+
+        BlockRegistry reg = new BlockRegistry();
+        reg.register(say);
+
+        File file = dir.resolve("shared.ypr").toFile();
+        new ScratchWriter(file).write(obj.toScratch(reg));
+        ScratchProject result = new ScratchReader().read(file);
+
+        // every use reads back with the value it was written with
+        ScratchObjectAbstractCollection blocks = result.getStage().getCustomBlock(0).getBody();
+        assertEquals(2, blocks.size());
+        for (ScratchObject block : blocks) {
+            ScratchObjectArray read = (ScratchObjectArray) ((ScratchObjectArray) block).get(1);
+            assertEquals("readBlockVariable", ((ScratchObjectSymbol) read.get(2)).getValue());
+            assertEquals("name", ((ScratchObjectAbstractString) read.get(3)).getValue());
+            assertEquals("greet %name", ((ScratchObjectAbstractString) read.get(4)).getValue());
+        }
+    }
 }
@@ -74,6 +74,19 @@ public class ProgramUnitTest
         assertEquals(20, ((ScratchObjectAbstractNumber) arr.get(5)).intValue());
     }
 
+    @Test
+    public void sharesOnlyReporterInvocations()
+    {
+        BlockDescription desc = new BlockDescription.Builder().label("do").label("something").build();
+
+        assertFalse(new ProgramUnit(null, UnitType.COMMAND, desc, Collections.emptyList())
+                .getInvocationBlock().isShareable());
+        assertTrue(new ProgramUnit(null, UnitType.REPORTER, desc, Collections.emptyList())
+                .getInvocationBlock().isShareable());
+        assertTrue(new ProgramUnit(null, UnitType.PREDICATE, desc, Collections.emptyList())
+                .getInvocationBlock().isShareable());
+    }
+
     @Test
     public void generatesEmptyCommand() throws ScratchConversionException
     {
@@ -0,0 +1,30 @@
+package structogram2byob.program;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ScratchObjectPoolTest
+{
+    @Test
+    public void sharesSymbols()
+    {
+        ScratchObjectPool obj = new ScratchObjectPool();
+
+        ScratchObjectSymbol symbol = obj.symbol("doForever");
+        assertEquals("doForever", symbol.getValue());
+        assertSame(symbol, obj.symbol("doForever"));
+        assertNotSame(symbol, obj.symbol("doIf"));
+    }
+
+    @Test
+    public void sharesEmptyString()
+    {
+        ScratchObjectPool obj = new ScratchObjectPool();
+
+        assertEquals("", obj.emptyString().getValue());
+        assertSame(obj.emptyString(), obj.emptyString());
+    }
+}
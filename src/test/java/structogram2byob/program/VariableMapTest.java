@@ -42,4 +42,44 @@ public class VariableMapTest
         assertSame(frame, combined.get("bar"));
         assertSame(frame, combined.get("baz"));
     }
+
+    @Test
+    public void shadowsInOrderOfCombination()
+    {
+        VariableContext global = VariableContext.getGlobal();
+        VariableContext frame1 = VariableContext.getForScript(new ScratchObjectVariableFrame());
+        VariableContext frame2 = VariableContext.getForScript(new ScratchObjectVariableFrame());
+
+        VariableMap base = new VariableMap(Collections.singletonMap("foo", global));
+        VariableMap inner = new VariableMap(Collections.singletonMap("foo", frame1))
+                .combine(new VariableMap(Collections.singletonMap("bar", frame1)))
+                .combine(new VariableMap(Collections.singletonMap("bar", frame2)));
+
+        VariableMap combined = base.combine(inner);
+
+        assertSame(frame1, combined.get("foo"));
+        assertSame(frame2, combined.get("bar"));
+
+        // existing maps are unchanged
+        assertSame(global, base.get("foo"));
+        assertNull(base.get("bar"));
+
+        assertSame(base, base.combine(VariableMap.EMPTY));
+        assertSame(global, VariableMap.EMPTY.combine(base).get("foo"));
+    }
+
+    @Test
+    public void extendsDeepScopeChains()
+    {
+        VariableContext global = VariableContext.getGlobal();
+
+        VariableMap obj = VariableMap.EMPTY;
+        for (int i = 0; i < 100_000; ++i) {
+            obj = obj.combine(new VariableMap(Collections.singletonMap("v" + i, global)));
+        }
+
+        assertSame(global, obj.get("v0"));
+        assertSame(global, obj.get("v99999"));
+        assertNull(obj.get("missing"));
+    }
 }
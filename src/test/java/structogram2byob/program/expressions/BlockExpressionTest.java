@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import nsdlib.elements.NSDInstruction;
 import org.junit.jupiter.api.Test;
 import scratchlib.objects.fixed.collections.ScratchObjectArray;
 import scratchlib.objects.fixed.data.ScratchObjectString;
@@ -15,6 +16,7 @@ import structogram2byob.blocks.Block;
 import structogram2byob.blocks.BlockDescription;
 import structogram2byob.blocks.BlockRegistry;
 import structogram2byob.blocks.FunctionBlock;
+import structogram2byob.program.Linker;
 import structogram2byob.program.ProgramUnit;
 import structogram2byob.program.ScratchConversionException;
 import structogram2byob.program.UnitType;
@@ -144,6 +146,150 @@ public class BlockExpressionTest
         assertSame(frame, result.get(4));
     }
 
+    @Test
+    public void usesLinkedBlock() throws ScratchConversionException
+    {
+        int[] lookups = { 0 };
+        BlockRegistry blocks = new BlockRegistry() {
+            @Override
+            public Block lookup(BlockDescription desc)
+            {
+                ++lookups[0];
+                return super.lookup(desc);
+            }
+        };
+        blocks.register(new FunctionBlock(DESC, null, "forward:"));
+
+        BlockExpression obj = new BlockExpression(null, DESC,
+                Collections.singletonList(new NumberExpression(null, 42)));
+
+        Linker linker = new Linker(blocks);
+        obj.link(Collections.emptySet(), linker);
+        assertTrue(linker.getErrors().isEmpty());
+        assertEquals(1, lookups[0]);
+
+        obj.toScratch(VariableMap.EMPTY, blocks);
+        obj.toScratch(VariableMap.EMPTY, blocks);
+        assertEquals(1, lookups[0]);
+    }
+
+    @Test
+    public void linksVariablesWithoutLookup()
+    {
+        Linker linker = new Linker(new BlockRegistry());
+
+        BlockExpression obj = new BlockExpression(null, DESC_VAR, Collections.emptyList());
+        obj.link(Collections.singleton("foobar"), linker);
+
+        assertTrue(linker.getErrors().isEmpty());
+    }
+
+    @Test
+    public void sharesSerializedReporters() throws ScratchConversionException
+    {
+        BlockDescription xPosition = new BlockDescription.Builder().label("x").label("position").build();
+
+        BlockRegistry blocks = new BlockRegistry();
+        blocks.register(new FunctionBlock(DESC, null, "forward:"));
+        blocks.register(new FunctionBlock(xPosition, ScratchType.NUMBER, "xpos"));
+
+        BlockExpression first = new BlockExpression(null, DESC, Collections.singletonList(
+                new BlockExpression(null, xPosition, Collections.emptyList())));
+        BlockExpression second = new BlockExpression(null, DESC, Collections.singletonList(
+                new BlockExpression(null, xPosition, Collections.emptyList())));
+
+        Linker linker = new Linker(blocks);
+        first.link(Collections.emptySet(), linker);
+        second.link(Collections.emptySet(), linker);
+
+        ScratchObjectArray firstResult = (ScratchObjectArray) first.toScratch(VariableMap.EMPTY, blocks);
+        ScratchObjectArray secondResult = (ScratchObjectArray) second.toScratch(VariableMap.EMPTY, blocks);
+
+        // commands are not shared, but identical reporters are
+        assertNotSame(firstResult, secondResult);
+        assertSame(firstResult.get(1), secondResult.get(1));
+    }
+
+    @Test
+    public void releasesSerializedReporters() throws ScratchConversionException
+    {
+        BlockDescription xPosition = new BlockDescription.Builder().label("x").label("position").build();
+
+        BlockRegistry blocks = new BlockRegistry();
+        blocks.register(new FunctionBlock(xPosition, ScratchType.NUMBER, "xpos"));
+
+        BlockExpression first = new BlockExpression(null, xPosition, Collections.emptyList());
+        BlockExpression second = new BlockExpression(null, xPosition, Collections.emptyList());
+
+        Linker linker = new Linker(blocks);
+        first.link(Collections.emptySet(), linker);
+        second.link(Collections.emptySet(), linker);
+        assertEquals(Collections.singletonList(first), linker.getRepresentatives());
+
+        Object before = second.toScratch(VariableMap.EMPTY, blocks);
+        first.releaseSerialized();
+
+        Object after = second.toScratch(VariableMap.EMPTY, blocks);
+        assertNotSame(before, after);
+        assertSame(after, first.toScratch(VariableMap.EMPTY, blocks));
+    }
+
+    @Test
+    public void reportsErrorsOfSharedReportersAgainstOwnElements()
+    {
+        BlockDescription abs = new BlockDescription.Builder().label("abs").param(ScratchType.NUMBER).build();
+        BlockDescription xPosition = new BlockDescription.Builder().label("x").label("position").build();
+
+        BlockRegistry blocks = new BlockRegistry();
+        blocks.register(new FunctionBlock(abs, ScratchType.NUMBER, "abs"));
+        blocks.register(new FunctionBlock(xPosition, ScratchType.NUMBER, "xpos"));
+
+        NSDInstruction firstElement = new NSDInstruction("abs (x position)");
+        NSDInstruction secondElement = new NSDInstruction("abs (x position)");
+        BlockExpression first = new BlockExpression(null, abs, Collections.singletonList(
+                new BlockExpression(firstElement, xPosition, Collections.emptyList())));
+        BlockExpression second = new BlockExpression(null, abs, Collections.singletonList(
+                new BlockExpression(secondElement, xPosition, Collections.emptyList())));
+
+        Linker linker = new Linker(blocks);
+        first.link(Collections.emptySet(), linker);
+        second.link(Collections.emptySet(), linker);
+        assertEquals(2, linker.getRepresentatives().size());
+
+        // serializing against a registry without "x position" fails in the representative
+        BlockRegistry other = new BlockRegistry();
+        other.register(new FunctionBlock(abs, ScratchType.NUMBER, "abs"));
+
+        ScratchConversionException e = assertThrows(ScratchConversionException.class,
+                () -> second.toScratch(VariableMap.EMPTY, other));
+        assertSame(secondElement, e.getElement());
+        e = assertThrows(ScratchConversionException.class, () -> first.toScratch(VariableMap.EMPTY, other));
+        assertSame(firstElement, e.getElement());
+    }
+
+    @Test
+    public void sharesVariableReadsPerScope() throws ScratchConversionException
+    {
+        BlockRegistry blocks = new BlockRegistry();
+
+        BlockExpression first = new BlockExpression(null, DESC_VAR, Collections.emptyList());
+        BlockExpression second = new BlockExpression(null, DESC_VAR, Collections.emptyList());
+
+        Linker linker = new Linker(blocks);
+        first.link(Collections.singleton("foobar"), linker);
+        second.link(Collections.singleton("foobar"), linker);
+
+        VariableMap global = new VariableMap(Collections.singletonMap("foobar", VariableContext.getGlobal()));
+        VariableMap script = new VariableMap(Collections.singletonMap("foobar",
+                VariableContext.getForScript(new ScratchObjectVariableFrame())));
+
+        assertSame(first.toScratch(global, blocks), second.toScratch(global, blocks));
+
+        ScratchObjectArray scriptResult = (ScratchObjectArray) second.toScratch(script, blocks);
+        assertNotSame(first.toScratch(global, blocks), scriptResult);
+        assertEquals("readBlockVariable", ((ScratchObjectSymbol) scriptResult.get(2)).getValue());
+    }
+
     @Test
     public void throwsForUnknownBlock()
     {
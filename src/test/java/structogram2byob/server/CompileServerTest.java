@@ -0,0 +1,214 @@
+package structogram2byob.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import structogram2byob.blocks.BlockRegistry;
+import structogram2byob.server.CompileStats.Outcome;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class CompileServerTest
+{
+    private CompileServer obj;
+
+    @BeforeEach
+    public void startServer() throws IOException
+    {
+        obj = new CompileServer(new BlockRegistry().freeze(), 0, 2, 4, 4096, 10_000);
+        obj.start();
+    }
+
+    @AfterEach
+    public void stopServer()
+    {
+        obj.stop();
+    }
+
+    private void restartServer(int threads, int queueCapacity, long timeoutMillis) throws IOException
+    {
+        obj.stop();
+        obj = new CompileServer(new BlockRegistry().freeze(), 0, threads, queueCapacity, 4096, timeoutMillis);
+        obj.start();
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException
+    {
+        URL url = new URL("http://localhost:" + obj.getPort() + path);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        return conn;
+    }
+
+    private HttpURLConnection post(byte[] body) throws IOException
+    {
+        HttpURLConnection conn = open("/compile", "POST");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        return conn;
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void compilesDiagrams() throws IOException
+    {
+        byte[] diagram = Files.readAllBytes(Paths.get("src/test/resources/testunit.nsd"));
+
+        HttpURLConnection conn = post(diagram);
+
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("application/octet-stream", conn.getContentType());
+        assertTrue(read(conn.getInputStream()).length > 0);
+        assertEquals(1, obj.getStats().getCount(Outcome.SUCCEEDED));
+    }
+
+    @Test
+    public void rejectsLargeBodies() throws IOException
+    {
+        HttpURLConnection conn = post(new byte[4097]);
+
+        assertEquals(413, conn.getResponseCode());
+        assertEquals(1, obj.getStats().getCount(Outcome.FAILED));
+    }
+
+    @Test
+    public void rejectsInvalidDiagrams() throws IOException
+    {
+        HttpURLConnection conn = post("<notroot/>".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(400, conn.getResponseCode());
+        assertTrue(new String(read(conn.getErrorStream()), StandardCharsets.UTF_8).contains("notroot"));
+        assertEquals(1, obj.getStats().getCount(Outcome.FAILED));
+    }
+
+    @Test
+    public void rejectsRequestsWhileUploadsTakeAllSlots() throws Exception
+    {
+        restartServer(1, 0, 10_000);
+
+        List<Socket> uploads = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                // announce a body, but never send all of it
+                Socket upload = new Socket(InetAddress.getLoopbackAddress(), obj.getPort());
+                uploads.add(upload);
+                upload.getOutputStream().write(("POST /compile HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Length: 1000\r\n\r\n<root").getBytes(StandardCharsets.US_ASCII));
+                upload.getOutputStream().flush();
+            }
+
+            // one upload takes the only slot, the others are answered without reading their body
+            int rejected = 0;
+            for (Socket upload : uploads) {
+                upload.setSoTimeout(2000);
+                try {
+                    String status = new BufferedReader(new InputStreamReader(upload.getInputStream(),
+                            StandardCharsets.US_ASCII)).readLine();
+                    assertTrue(status.contains(" 503 "), status);
+                    ++rejected;
+                } catch (SocketTimeoutException e) {
+                    // still being read
+                }
+            }
+            assertEquals(2, rejected);
+
+            HttpURLConnection conn = open("/stats", "GET");
+            conn.setReadTimeout(5000);
+            assertEquals(200, conn.getResponseCode());
+            assertTrue(new String(read(conn.getInputStream()), StandardCharsets.UTF_8).contains("rejected\t2\n"));
+        } finally {
+            for (Socket upload : uploads) {
+                upload.close();
+            }
+        }
+
+        // the aborted upload gives its slot back
+        byte[] diagram = Files.readAllBytes(Paths.get("src/test/resources/testunit.nsd"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int status;
+        do {
+            status = post(diagram).getResponseCode();
+        } while (status == 503 && System.nanoTime() < deadline);
+        assertEquals(200, status);
+    }
+
+    @Test
+    public void abandonsSlowCompilations() throws IOException
+    {
+        restartServer(1, 0, 0);
+        byte[] diagram = Files.readAllBytes(Paths.get("src/test/resources/testunit.nsd"));
+
+        HttpURLConnection conn = post(diagram);
+
+        assertEquals(504, conn.getResponseCode());
+        assertEquals(1, obj.getStats().getCount(Outcome.TIMED_OUT));
+    }
+
+    @Test
+    public void rejectsWrongMethods() throws IOException
+    {
+        assertEquals(405, open("/compile", "GET").getResponseCode());
+        assertEquals(405, open("/stats", "DELETE").getResponseCode());
+    }
+
+    @Test
+    public void reportsStats() throws IOException
+    {
+        byte[] diagram = Files.readAllBytes(Paths.get("src/test/resources/testunit.nsd"));
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(200, post(diagram).getResponseCode());
+        }
+        assertEquals(413, post(new byte[5000]).getResponseCode());
+
+        HttpURLConnection conn = open("/stats", "GET");
+        assertEquals(200, conn.getResponseCode());
+        String stats = new String(read(conn.getInputStream()), StandardCharsets.UTF_8);
+
+        assertTrue(stats.contains("requests\t4\n"));
+        assertTrue(stats.contains("succeeded\t3\n"));
+        assertTrue(stats.contains("failed\t1\n"));
+        assertTrue(stats.contains("rejected\t0\n"));
+        assertTrue(stats.contains("timed_out\t0\n"));
+        assertTrue(stats.contains("latency_mean_ms\t"));
+        assertTrue(stats.contains("throughput_per_s\t"));
+    }
+
+    @Test
+    public void rejectsUnfrozenRegistry()
+    {
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompileServer(new BlockRegistry(), 0, 1, 1, 1, 1).stop());
+    }
+}